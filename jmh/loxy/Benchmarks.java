@@ -0,0 +1,152 @@
+package loxy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Times the front end and the interpreter on fixed workloads, to compare
+// changes to their hot paths:
+//
+//     $ gradle jmh -Pjmh='loxy.Benchmarks -prof gc'
+//
+// -prof gc adds the bytes each operation allocates and the collections
+// it caused.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Benchmarks {
+    private String large;
+    private String deep;
+    private List<Stmt> resolved;
+
+    @Setup
+    public void setUp() {
+        large = largeSource();
+        deep = deepSource();
+        resolved = parse(large);
+    }
+
+    @Benchmark
+    public Object scanLarge() {
+        Scanner scanner = new Scanner(large);
+        TokenBuffer tokens = new TokenBuffer(1024);
+        while (!scanner.isFinished()) {
+            tokens.clear();
+            scanner.scan(tokens);
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public Object parseLarge() {
+        return parse(large);
+    }
+
+    @Benchmark
+    public Object parseDeep() {
+        return parse(deep);
+    }
+
+    @Benchmark
+    public Object resolveLarge() {
+        new Resolver(new Interpreter()).resolve(resolved);
+        return resolved;
+    }
+
+    @Benchmark
+    public Object interpret(Program program) {
+        program.interpreter.interpret(program.statements);
+        return program.interpreter;
+    }
+
+    // a script resolved once, then interpreted over and over
+    @State(Scope.Benchmark)
+    public static class Program {
+        @Param({"fib", "loops", "closures", "concat"})
+        public String name;
+
+        Interpreter interpreter;
+        List<Stmt> statements;
+
+        @Setup
+        public void setUp() {
+            interpreter = new Interpreter();
+            statements = parse(source(name));
+            new Resolver(interpreter).resolve(statements);
+            new Optimizer(interpreter).optimize(statements);
+        }
+
+        private static String source(String name) {
+            switch (name) {
+                case "fib":
+                    return "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+                            + "var result = fib(20);\n";
+                case "loops":
+                    return "var sum = 0;\n"
+                            + "for (var i = 0; i < 300; i = i + 1) {\n"
+                            + "    for (var j = 0; j < 300; j = j + 1) { sum = sum + i * j; }\n"
+                            + "}\n";
+                case "closures":
+                    return "fun make_adder(n) { fun adder(x) { return n + x; } return adder; }\n"
+                            + "var sum = 0;\n"
+                            + "for (var i = 0; i < 10000; i = i + 1) { sum = sum + make_adder(i)(1); }\n";
+                case "concat":
+                    return "var s = \"\";\n"
+                            + "for (var i = 0; i < 10000; i = i + 1) { s = s + \"ab\"; }\n"
+                            + "var t = s == \"\";\n";
+                default:
+                    throw new IllegalArgumentException("No program " + name);
+            }
+        }
+    }
+
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source)).parse();
+    }
+
+    // about 1 MB of functions, loops, strings, numbers and comments
+    private static String largeSource() {
+        StringBuilder source = new StringBuilder();
+        String letters = "abcdefghijklmnopqrstuvwxyz";
+        for (int i = 0; source.length() < 1 << 20; i++) {
+            String name = "f" + letters.charAt(i % 26) + letters.charAt(i / 26 % 26) + letters.charAt(i / 676 % 26);
+            source.append("// function ").append(i).append('\n')
+                    .append("fun ").append(name).append("(a, b) {\n")
+                    .append("    var total = a * ").append(i).append(".5 + b;\n")
+                    .append("    for (var k = 0; k < b; k = k + 1) { total = total - k / 2; }\n")
+                    .append("    if (total >= 100 and a != nil) { print \"big \" + \"total\"; }\n")
+                    .append("    return total;\n")
+                    .append("}\n")
+                    .append("var r").append(name).append(" = ").append(name).append("(1, 2);\n");
+        }
+        return source.toString();
+    }
+
+    // statements nested 200 parentheses deep and 500 operators long
+    private static String deepSource() {
+        StringBuilder source = new StringBuilder();
+        for (int n = 0; n < 50; n++) {
+            source.append("var nested = ");
+            for (int i = 0; i < 200; i++) source.append("(1 + ");
+            source.append('1');
+            for (int i = 0; i < 200; i++) source.append(')');
+            source.append(";\nvar chain = 1");
+            for (int i = 0; i < 500; i++) source.append(i % 2 == 0 ? " + " : " * ").append(i);
+            source.append(";\n");
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package loxy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scans a file over and over and reports scans and tokens per second, to
+// compare scanner changes; -prof gc adds the bytes allocated per scan:
+//
+//     $ gradle jmh -Pjmh='ScannerBenchmark -p script=a.l -prof gc'
+//
+// The script is src/a.l unless given, relative to the project directory.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark {
+    @Param("src/a.l")
+    public String script;
+
+    private String source;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = new String(Files.readAllBytes(Paths.get(script)));
+    }
+
+    // reported per second next to the scans
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public Object scan(Tokens counter) {
+        Scanner scanner = new Scanner(source);
+        TokenBuffer tokens = new TokenBuffer(1024);
+        while (!scanner.isFinished()) {
+            tokens.clear();
+            scanner.scan(tokens);
+            counter.tokens += tokens.count;
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,101 @@
+package loxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Starts Loxy over and over, with and without the class-data sharing
+// archive bin/loxy --train dumps, and reports the time from launching the
+// JVM until the script's first line of output:
+//
+//     $ bin/loxy --train
+//     $ gradle jmh -Pjmh='StartupBenchmark'
+//
+// -p build= names the directory with loxy.jar and loxy.jsa, -p script= a
+// script to run instead of a single print.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    @Param("build")
+    public String build;
+
+    @Param("")
+    public String script;
+
+    @Param({"false", "true"})
+    public boolean archive;
+
+    private List<String> command;
+    private Path temporary;
+    private Process process;
+    private BufferedReader output;
+
+    @Setup
+    public void setUp() throws IOException {
+        String path = script;
+        if (path.isEmpty()) {
+            temporary = Files.createTempFile("startup", ".l");
+            Files.write(temporary, "print \"ready\";\n".getBytes());
+            path = temporary.toString();
+        }
+        Path directory = Paths.get(build);
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (archive) {
+            command.add("-XX:SharedArchiveFile=" + directory.resolve("loxy.jsa"));
+            command.add("-Xshare:on");
+        }
+        command.add("-cp");
+        command.add(directory.resolve("loxy.jar").toString());
+        command.add("loxy.Loxy");
+        command.add(path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (temporary != null) Files.delete(temporary);
+    }
+
+    @Benchmark
+    public String firstLine() throws IOException {
+        process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = output.readLine();
+        if (line == null) {
+            throw new IOException("No output from " + String.join(" ", command));
+        }
+        return line;
+    }
+
+    // the rest of the run isn't timed
+    @TearDown(Level.Invocation)
+    public void finish() throws IOException, InterruptedException {
+        while (output.readLine() != null) {
+        }
+        output.close();
+        process.waitFor();
+    }
+}
@@ -0,0 +1,217 @@
+package loxy;
+
+import java.util.Objects;
+
+// Self-specializing implementation of Expr.Binary.
+// Every node starts as UNINITIALIZED and on its first execution rewrites
+// itself (expr.node) into a variant for the operand types it has seen,
+// so a monomorphic node does not switch on the operator again.
+// A specialized variant guards its operand types and deoptimizes
+// the node to GENERIC for good once the guard fails.
+abstract class BinaryNode {
+    static long specialized = 0;
+    static long deoptimized = 0;
+
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    static final BinaryNode UNINITIALIZED = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr.operator.type, left, right);
+            if (node != GENERIC) specialized++;
+            expr.node = node;
+            return node.execute(expr, left, right);
+        }
+    };
+
+    static final BinaryNode GENERIC = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            switch (expr.operator.type) {
+                // nil equals only nil, numbers compare like Double.compare
+                case EQUAL_EQUAL -> {
+                    return Objects.equals(left, right);
+                }
+                case BANG_EQUAL -> {
+                    return !Objects.equals(left, right);
+                }
+                case GREATER -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left > (double)right;
+                }
+                case GREATER_EQUAL -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left >= (double)right;
+                }
+                case LESS -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left < (double)right;
+                }
+                case LESS_EQUAL -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left <= (double)right;
+                }
+                case STAR -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left * (double)right;
+                }
+                case SLASH -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left / (double)right;
+                }
+                case PLUS -> {
+                    if (left instanceof Double && right instanceof Double) {
+                        return (double)left + (double)right;
+                    } else if (left instanceof Rope && right instanceof Rope) {
+                        return ((Rope)left).concat((Rope)right);
+                    } else {
+                        throw new RuntimeError(expr.operator, "Unexpected operands");
+                    }
+                }
+                case MINUS -> {
+                    checkNumberOperands(expr.operator, left, right);
+                    return (double)left - (double)right;
+                }
+            }
+            throw new RuntimeError(expr.operator, "Unknown operation.");
+        }
+    };
+
+    abstract static class NumberNode extends BinaryNode {
+        @Override
+        final Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return apply((double)left, (double)right);
+            }
+            return deoptimize(expr, left, right);
+        }
+
+        abstract Object apply(double left, double right);
+    }
+
+    // a number node whose result is a number as well,
+    // the Interpreter can keep it unboxed with evaluateNumber
+    abstract static class ArithmeticNode extends NumberNode {
+        @Override
+        final Object apply(double left, double right) {
+            return compute(left, right);
+        }
+
+        abstract double compute(double left, double right);
+    }
+
+    static final BinaryNode ADD = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) {
+            return left + right;
+        }
+    };
+
+    static final BinaryNode SUBTRACT = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) {
+            return left - right;
+        }
+    };
+
+    static final BinaryNode MULTIPLY = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) {
+            return left * right;
+        }
+    };
+
+    static final BinaryNode DIVIDE = new ArithmeticNode() {
+        @Override
+        double compute(double left, double right) {
+            return left / right;
+        }
+    };
+
+    static final BinaryNode GREATER = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left > right;
+        }
+    };
+
+    static final BinaryNode GREATER_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left >= right;
+        }
+    };
+
+    static final BinaryNode LESS = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left < right;
+        }
+    };
+
+    static final BinaryNode LESS_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return left <= right;
+        }
+    };
+
+    // Double.compare agrees with Double.equals on NaN and -0.0
+    static final BinaryNode EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return Double.compare(left, right) == 0;
+        }
+    };
+
+    static final BinaryNode NOT_EQUAL = new NumberNode() {
+        @Override
+        Object apply(double left, double right) {
+            return Double.compare(left, right) != 0;
+        }
+    };
+
+    static final BinaryNode CONCAT = new BinaryNode() {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Rope && right instanceof Rope) {
+                return ((Rope)left).concat((Rope)right);
+            }
+            return deoptimize(expr, left, right);
+        }
+    };
+
+    static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return ADD;
+                case MINUS: return SUBTRACT;
+                case STAR: return MULTIPLY;
+                case SLASH: return DIVIDE;
+                case GREATER: return GREATER;
+                case GREATER_EQUAL: return GREATER_EQUAL;
+                case LESS: return LESS;
+                case LESS_EQUAL: return LESS_EQUAL;
+                case EQUAL_EQUAL: return EQUAL;
+                case BANG_EQUAL: return NOT_EQUAL;
+                default: return GENERIC;
+            }
+        }
+        if (left instanceof Rope && right instanceof Rope && operator == TokenType.PLUS) {
+            return CONCAT;
+        }
+        return GENERIC;
+    }
+
+    static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        deoptimized++;
+        expr.node = GENERIC;
+        return GENERIC.execute(expr, left, right);
+    }
+
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            throw new RuntimeError(operator, "Number expected.");
+        }
+    }
+}
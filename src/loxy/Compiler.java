@@ -0,0 +1,468 @@
+package loxy;
+
+import loxy.vm.Chunk;
+import loxy.vm.OpCode;
+import loxy.vm.VmFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles resolved statements into bytecode for loxy.vm.VM.
+// It lives next to the Resolver because the AST classes are package-private.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_SHORT = 0xffff;
+
+    private static class Local {
+        final int symbol;
+        int depth; // -1 while its initializer is being compiled
+        boolean captured = false;
+
+        Local(int symbol, int depth) {
+            this.symbol = symbol;
+            this.depth = depth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final List<Local> locals = new ArrayList<>();
+        final List<Boolean> upvalueIsLocal = new ArrayList<>();
+        final List<Integer> upvalueIndex = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function) {
+            this.enclosing = enclosing;
+            this.function = function;
+            // slot 0 holds the closure being called
+            locals.add(new Local(-1, 0));
+        }
+    }
+
+    private FunctionState current;
+    private int line_number = 1;
+    // the token the code being emitted belongs to, for runtime errors
+    private String lexeme = "";
+
+    // Every top-level statement becomes its own script, so that the VM can
+    // carry on with the next one after a runtime error like the Interpreter does.
+    List<VmFunction> compile(List<Stmt> statements) {
+        List<VmFunction> scripts = new ArrayList<>();
+        for (Stmt statement : statements) {
+            current = new FunctionState(null, new VmFunction(null, 0));
+            compile(statement);
+            emit(OpCode.NIL);
+            emit(OpCode.RETURN);
+            current.function.finish(0);
+            scripts.add(current.function);
+        }
+        return scripts;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        at(stmt.keyword);
+        compile(stmt.value);
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        at(stmt.name);
+        if (current.scopeDepth > 0) {
+            int slot = scopeLocal(stmt.name.symbol);
+            if (slot != -1) {
+                // declared again in the same scope: the same slot, and the
+                // initializer still sees the old value
+                compileInitializer(stmt);
+                setScopeLocal(slot);
+                return null;
+            }
+            Local local = new Local(stmt.name.symbol, -1);
+            current.locals.add(local);
+            compileInitializer(stmt);
+            local.depth = current.scopeDepth;
+        } else {
+            compileInitializer(stmt);
+            emitShort(OpCode.DEFINE_GLOBAL, nameConstant(stmt.name));
+        }
+        return null;
+    }
+
+    private void compileInitializer(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        at(stmt.name);
+        if (current.scopeDepth > 0) {
+            int slot = scopeLocal(stmt.name.symbol);
+            if (slot != -1) {
+                function(stmt);
+                setScopeLocal(slot);
+                return null;
+            }
+            // defined before the body so that it can call itself
+            current.locals.add(new Local(stmt.name.symbol, current.scopeDepth));
+            function(stmt);
+        } else {
+            function(stmt);
+            emitShort(OpCode.DEFINE_GLOBAL, nameConstant(stmt.name));
+        }
+        return null;
+    }
+
+    private void function(Stmt.Function stmt) {
+        FunctionState state = new FunctionState(current,
+                new VmFunction(stmt.name.lexeme, stmt.params.size()));
+        current = state;
+        current.scopeDepth = 1;
+        for (Token param : stmt.params) {
+            current.locals.add(new Local(param.symbol, 1));
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+        current = state.enclosing;
+
+        state.function.finish(state.upvalueIndex.size());
+        emitShort(OpCode.CLOSURE, constant(state.function));
+        for (int i = 0; i < state.upvalueIndex.size(); i++) {
+            emit(state.upvalueIsLocal.get(i) ? 1 : 0);
+            emitShort(state.upvalueIndex.get(i));
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        current.scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            emit(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk().count();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        current.scopeDepth++;
+        if (stmt.initializer != null) compile(stmt.initializer);
+        int loopStart = chunk().count();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        at(expr.name);
+        int slot = resolveLocal(current, expr.name.symbol);
+        if (slot != -1) {
+            emitShort(OpCode.SET_LOCAL, slot);
+            return null;
+        }
+        int upvalue = resolveUpvalue(current, expr.name.symbol);
+        if (upvalue != -1) {
+            emitShort(OpCode.SET_UPVALUE, upvalue);
+        } else {
+            emitShort(OpCode.SET_GLOBAL, nameConstant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        at(expr.operator);
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL);
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case PLUS -> emit(OpCode.ADD);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case STAR -> emit(OpCode.MULTIPLY);
+            case SLASH -> emit(OpCode.DIVIDE);
+            default -> error("Unknown operation.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        at(expr.operator);
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.NEGATE);
+            case BANG -> emit(OpCode.NOT);
+            default -> error("Unexpected operator.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitShort(OpCode.CONSTANT, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        at(expr.name);
+        int slot = resolveLocal(current, expr.name.symbol);
+        if (slot == -2) {
+            // reading a local in its own initializer, the Resolver
+            // has reported it and the Interpreter sees an empty slot
+            emit(OpCode.NIL);
+            return null;
+        }
+        if (slot != -1) {
+            emitShort(OpCode.GET_LOCAL, slot);
+            return null;
+        }
+        int upvalue = resolveUpvalue(current, expr.name.symbol);
+        if (upvalue != -1) {
+            emitShort(OpCode.GET_UPVALUE, upvalue);
+        } else {
+            emitShort(OpCode.GET_GLOBAL, nameConstant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        at(expr.paren);
+        emit(OpCode.CALL);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    // the slot of a local declared in the current scope, or -1
+    private int scopeLocal(int symbol) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0; i--) {
+            Local local = locals.get(i);
+            if (local.depth != -1 && local.depth < current.scopeDepth) break;
+            if (local.symbol == symbol) return i;
+        }
+        return -1;
+    }
+
+    private void setScopeLocal(int slot) {
+        emitShort(OpCode.SET_LOCAL, slot);
+        emit(OpCode.POP);
+    }
+
+    // -1 when the name is not a local of state, -2 when it is still uninitialized
+    private int resolveLocal(FunctionState state, int symbol) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            Local local = state.locals.get(i);
+            if (local.symbol == symbol) {
+                return local.depth == -1 ? -2 : i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, int symbol) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, symbol);
+        if (local >= 0) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, true, local);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, symbol);
+        if (upvalue != -1) {
+            return addUpvalue(state, false, upvalue);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index) {
+        for (int i = 0; i < state.upvalueIndex.size(); i++) {
+            if (state.upvalueIsLocal.get(i) == isLocal && state.upvalueIndex.get(i) == index) {
+                return i;
+            }
+        }
+        state.upvalueIsLocal.add(isLocal);
+        state.upvalueIndex.add(index);
+        return state.upvalueIndex.size() - 1;
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk();
+    }
+
+    private void at(Token token) {
+        line_number = token.line_number;
+        lexeme = token.lexeme;
+    }
+
+    private void emit(int b) {
+        chunk().write(b, line_number, lexeme);
+    }
+
+    private void emitShort(int value) {
+        if (value > MAX_SHORT) error("Too many locals, upvalues or constants in one function.");
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private void emitShort(byte op, int value) {
+        emit(op);
+        emitShort(value);
+    }
+
+    private int emitJump(byte op) {
+        emit(op);
+        emit(0xff);
+        emit(0xff);
+        return chunk().count() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk().count() - offset - 2;
+        if (jump > MAX_SHORT) error("Too much code to jump over.");
+        chunk().patch(offset, (jump >> 8) & 0xff);
+        chunk().patch(offset + 1, jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = chunk().count() - loopStart + 2;
+        if (offset > MAX_SHORT) error("Loop body too large.");
+        emitShort(offset);
+    }
+
+    private int constant(Object value) {
+        return chunk().addConstant(value);
+    }
+
+    private int nameConstant(Token name) {
+        return constant(name.lexeme);
+    }
+
+    private void error(String msg) {
+        Loxy.hasError = true;
+        Loxy.error(line_number, msg);
+    }
+}
@@ -1,47 +1,108 @@
 package loxy;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
 
-    private final Map<String, Object> values = new HashMap<>();
+    // only the global environment is keyed by name (its symbol),
+    // local scopes are laid out into slots by the Resolver
+    private Cell[] cells;
+    private final Object[] slots;
+    // slots holding NUMBER keep their value unboxed in numbers
+    private double[] numbers;
+    private int count = 0;
+
+    private static final Object NUMBER = new Object();
 
     final Environment enclosing;
 
+    // A global variable. Redefining a global reuses its cell,
+    // so that expressions may keep the cell once they have found it.
+    static class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+
     Environment() {
+        if (Metrics.ENABLED) Metrics.environments.increment();
         enclosing = null;
+        cells = new Cell[64];
+        slots = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
+        if (Metrics.ENABLED) Metrics.environments.increment();
         this.enclosing = enclosing;
+        cells = null;
+        slots = new Object[size];
     }
 
-    void define(String name, Object value) {
+    void define(int symbol, Object value) {
         // here we allowed to redefine a variable
         // just follow the scheme's way
         // (Scheme allows redefining variables at the top level)
-        values.put(name, value);
+        if (symbol >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(symbol + 1, cells.length * 2));
+        }
+        Cell cell = cells[symbol];
+        if (cell == null) {
+            cells[symbol] = new Cell(value);
+        } else {
+            cell.value = value;
+        }
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    // starts the frame over for another call of the same function, or
+    // another iteration of the same loop body
+    void reset() {
+        Arrays.fill(slots, null);
+        count = 0;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    void define(Object value) {
+        // declarations in a scope are executed in the same order
+        // as the Resolver numbered them, so the next free slot is the right one
+        slots[count++] = value;
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    void assignNumberAt(int distance, int slot, double value) {
+        ancestor(distance).setNumber(slot, value);
+    }
+
+    private void setNumber(int slot, double value) {
+        if (numbers == null) {
+            numbers = new double[slots.length];
         }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+        slots[slot] = NUMBER;
+        numbers[slot] = value;
+    }
+
+    Object getAt(int distance, int slot) {
+        Environment env = ancestor(distance);
+        Object value = env.slots[slot];
+        if (value == NUMBER) {
+            return env.numbers[slot];
         }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return value;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    double getNumberAt(int distance, int slot) {
+        Environment env = ancestor(distance);
+        Object value = env.slots[slot];
+        if (value == NUMBER) {
+            return env.numbers[slot];
+        }
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new UnexpectedValue(value);
     }
 
     Environment ancestor(int distance) {
@@ -53,12 +114,9 @@ public class Environment {
         return env;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-        if (enclosing != null) {
-            return enclosing.get(name);
+    Cell cell(Token name) {
+        if (name.symbol < cells.length && cells[name.symbol] != null) {
+            return cells[name.symbol];
         }
         // here we make it a runtime error when a variable is not found
         // it helps us to define recursive function easily
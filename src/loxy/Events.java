@@ -0,0 +1,100 @@
+package loxy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events, so that what a script does shows up on the same
+// timeline as GC and JIT activity:
+//
+//     $ java -XX:StartFlightRecording=filename=loxy.jfr loxy.Loxy a.l
+//     $ jfr print --events loxy.* loxy.jfr
+//
+// Events are only created once a recording asks for them: phases and
+// errors are rare, and calls check a countdown first, so that only every
+// -Dloxy.jfr.sample (1000) call of a Lox function builds an event at all.
+// Setting up the first event costs the JVM most of a second when Flight
+// Recorder isn't running yet, so nothing is recorded unless it was started
+// with the JVM (-XX:StartFlightRecording); a recording started later with
+// jcmd doesn't see Loxy's events.
+final class Events {
+    static final boolean RECORDING = FlightRecorder.isInitialized();
+    private static final int SAMPLE = Math.max(1, Integer.getInteger("loxy.jfr.sample", 1000));
+    private static int countdown = SAMPLE;
+
+    private Events() {
+    }
+
+    // whether this call is one of the sampled ones
+    static boolean sampleCall() {
+        if (!RECORDING || --countdown != 0) return false;
+        countdown = SAMPLE;
+        return true;
+    }
+
+    // a phase that has begun, or null when it isn't recorded
+    static Phase begin(String name) {
+        if (!RECORDING) return null;
+        Phase phase = new Phase(name);
+        if (!phase.isEnabled()) return null;
+        phase.begin();
+        return phase;
+    }
+
+    static void end(Phase phase) {
+        if (phase != null) phase.commit();
+    }
+
+    @Name("loxy.Phase")
+    @Label("Phase")
+    @Category("Loxy")
+    @Description("A stage of running a script; scans nest inside the parse that asks for the tokens")
+    @StackTrace(false)
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("loxy.Call")
+    @Label("Function Call")
+    @Category("Loxy")
+    @Description("A sampled call of a Lox function, until it returns")
+    @StackTrace(false)
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Call Site Line")
+        int line;
+    }
+
+    @Name("loxy.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Loxy")
+    @StackTrace(false)
+    static final class Error extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    static void runtimeError(int line, String message) {
+        if (!RECORDING) return;
+        Error event = new Error();
+        if (event.isEnabled()) {
+            event.line = line;
+            event.message = message;
+            event.commit();
+        }
+    }
+}
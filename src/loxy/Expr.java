@@ -18,6 +18,7 @@ abstract class Expr {
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        Environment.Cell cell = null;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -53,6 +54,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -113,6 +115,7 @@ abstract class Expr {
 
     static class Variable extends Expr {
         final Token name;
+        Environment.Cell cell = null;
 
         Variable(Token name) {
             this.name = name;
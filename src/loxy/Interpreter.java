@@ -1,20 +1,52 @@
 package loxy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private final Map<Expr, Slot> locals = new HashMap<>();
+    private final Map<Stmt, Integer> frames = new HashMap<>();
+    // compile hot functions to JVM bytecode (--jit)
+    boolean jit = false;
+    // functions found pure by Purity, their results are cached (--memoize)
+    private final Set<Stmt.Function> memoized = new HashSet<>();
+    // what they were wrapped in, for --stats
+    final List<MemoizedFunction> memoizedFunctions = new ArrayList<>();
+
+    // How a statement finished. A return statement leaves its value in
+    // returnValue and every enclosing statement hands RETURN on unchanged,
+    // so returning is an ordinary return path instead of an exception.
+    // TAIL_CALL asks the running LoxyFunction to call tailCallee with
+    // tailArguments in place of itself.
+    enum Completion {
+        NORMAL, RETURN, TAIL_CALL
+    }
+
+    private Object returnValue = null;
+    LoxyFunction tailCallee = null;
+    // the parenthesis of the call being made, for the call events
+    Token callSite = null;
+    private Object[] tailArguments = new Object[4];
+    private int tailArgumentCount = 0;
 
     Interpreter() {
-        environment.define("clock", new LoxyCallable(){
+        environment.define(Symbols.intern("clock"), new LoxyCallable(){
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                if (Metrics.ENABLED) Metrics.nativeCalls.increment();
                 return System.currentTimeMillis() / 1000.0;
             }
 
@@ -30,8 +62,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void resolve(Expr expr, int depth, int index) {
+        locals.put(expr, new Slot(depth, index));
+    }
+
+    Slot slot(Expr expr) {
+        return locals.get(expr);
+    }
+
+    void resolveFrame(Stmt stmt, int size) {
+        frames.put(stmt, size);
+    }
+
+    int frameSize(Stmt stmt) {
+        return frames.get(stmt);
+    }
+
+    // a rewritten node takes over the slot of the one it replaces
+    void moveResolution(Expr from, Expr to) {
+        Slot slot = locals.remove(from);
+        if (slot != null) {
+            locals.put(to, slot);
+        }
+    }
+
+    void moveFrame(Stmt from, Stmt to) {
+        frames.put(to, frames.remove(from));
+    }
+
+    // Forgets the resolution of statements that have run, as the REPL's
+    // lines have: only the bodies of functions they declared can run again.
+    void release(List<Stmt> statements) {
+        Release release = new Release(false);
+        for (Stmt statement : statements) {
+            statement.accept(release);
+        }
+    }
+
+    // Forgets the resolution of code the Optimizer dropped, function
+    // bodies included, as none of it can run.
+    void discard(Stmt stmt) {
+        stmt.accept(new Release(true));
+    }
+
+    void discard(Expr expr) {
+        expr.accept(new Release(true));
+    }
+
+    void memoize(Stmt.Function function) {
+        memoized.add(function);
     }
 
     public void interpret(List<Stmt> statements) {
@@ -48,65 +127,106 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    void execute(Stmt stmt) {
-        stmt.accept(this);
+    Completion execute(Stmt stmt) {
+        if (Metrics.ENABLED) Metrics.statements.increment();
+        if (Profiler.enabled) Profiler.hit(stmt);
+        return stmt.accept(this);
+    }
+
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    // a tail call of compiled code, made by the running LoxyFunction
+    void deferCall(LoxyFunction callee, Object[] arguments) {
+        tailCallee = callee;
+        tailArguments = arguments;
+        tailArgumentCount = arguments.length;
+    }
+
+    void defineTailArguments(Environment environment) {
+        for (int i = 0; i < tailArgumentCount; i++) {
+            environment.define(tailArguments[i]);
+            tailArguments[i] = null;
+        }
+    }
+
+    Object[] takeTailArguments() {
+        Object[] arguments = Arrays.copyOf(tailArguments, tailArgumentCount);
+        Arrays.fill(tailArguments, null);
+        return arguments;
     }
 
     Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    @Override
-    public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case EQUAL_EQUAL -> {
-                return left.equals(right);
-            }
-            case BANG_EQUAL -> {
-                return !left.equals(right);
-            }
-            case GREATER -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            }
-            case GREATER_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            }
-            case LESS -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            }
-            case LESS_EQUAL -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-            }
-            case STAR -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+    // Evaluates an expression expected to be a number without boxing it.
+    // If it turns out to be something else, UnexpectedValue carries the result.
+    double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.node instanceof BinaryNode.ArithmeticNode) {
+                double left;
+                try {
+                    left = evaluateNumber(binary.left);
+                } catch (UnexpectedValue e) {
+                    return expectNumber(BinaryNode.deoptimize(binary, e.value, evaluate(binary.right)));
+                }
+                double right;
+                try {
+                    right = evaluateNumber(binary.right);
+                } catch (UnexpectedValue e) {
+                    return expectNumber(BinaryNode.deoptimize(binary, left, e.value));
+                }
+                return ((BinaryNode.ArithmeticNode)binary.node).compute(left, right);
             }
-            case SLASH -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
+        } else if (expr instanceof Expr.Variable) {
+            Slot slot = locals.get(expr);
+            if (slot != null) {
+                return environment.getNumberAt(slot.depth, slot.index);
             }
-            case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                } else if (left instanceof String && right instanceof String) {
-                    return left + (String)right;
-                } else {
-                    throw new RuntimeError(expr.operator, "Unexpected operands");
-                }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+        }
+        return expectNumber(evaluate(expr));
+    }
+
+    private double expectNumber(Object value) {
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new UnexpectedValue(value);
+    }
+
+    private static boolean isNumeric(Expr expr) {
+        return expr instanceof Expr.Binary && ((Expr.Binary)expr).node instanceof BinaryNode.ArithmeticNode;
+    }
+
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+        BinaryNode node = expr.node;
+        if (node instanceof BinaryNode.NumberNode) {
+            // the node has only seen numbers, keep the operands unboxed
+            double left;
+            try {
+                left = evaluateNumber(expr.left);
+            } catch (UnexpectedValue e) {
+                return BinaryNode.deoptimize(expr, e.value, evaluate(expr.right));
             }
-            case MINUS -> {
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+            double right;
+            try {
+                right = evaluateNumber(expr.right);
+            } catch (UnexpectedValue e) {
+                return BinaryNode.deoptimize(expr, left, e.value);
             }
+            return ((BinaryNode.NumberNode)node).apply(left, right);
         }
-        throw new RuntimeError(expr.operator, "Unknown operation.");
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        return node.execute(expr, left, right);
     }
 
     @Override
@@ -144,87 +264,155 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    void checkNumberOperands(Token operator, Object left, Object right) {
-        if (!(left instanceof Double) || !(right instanceof Double)) {
-            throw new RuntimeError(operator, "Number expected.");
-        }
-    }
-
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        evaluateForEffect(stmt.expression);
+        return Completion.NORMAL;
+    }
+
+    private void evaluateForEffect(Expr expression) {
+        if (expression instanceof Expr.Assign) {
+            // nobody looks at the value, so a number can be stored unboxed
+            assign((Expr.Assign)expression);
+        } else {
+            evaluate(expression);
+        }
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(value);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        Slot slot = locals.get(expr);
+        if (slot != null) {
+            return environment.getAt(slot.depth, slot.index);
+        } else {
+            return getGlobal(expr);
+        }
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
+    // Globals are looked up by name only the first time an expression runs,
+    // the cell stays valid when the global is redefined later on.
+    // An undefined global is not cached, it may still get defined.
+    Object getGlobal(Expr.Variable expr) {
+        Environment.Cell cell = expr.cell;
+        if (cell == null) {
+            cell = expr.cell = globals.cell(expr.name);
+        }
+        return cell.value;
+    }
+
+    void setGlobal(Expr.Assign expr, Object value) {
+        Environment.Cell cell = expr.cell;
+        if (cell == null) {
+            cell = expr.cell = globals.cell(expr.name);
         }
+        cell.value = value;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot != -1 && isNumeric(stmt.initializer)) {
+            try {
+                environment.assignNumberAt(0, stmt.slot, evaluateNumber(stmt.initializer));
+            } catch (UnexpectedValue e) {
+                environment.assignAt(0, stmt.slot, e.value);
+            }
+            return Completion.NORMAL;
+        }
         Object value = null;
         if (stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, stmt.slot, value);
+        return Completion.NORMAL;
+    }
+
+    private void define(Token name, int slot, Object value) {
+        if (slot == -1) {
+            globals.define(name.symbol, value);
+        } else {
+            environment.assignAt(0, slot, value);
+        }
+    }
+
+    private void assign(Expr.Assign expr) {
+        Slot slot = locals.get(expr);
+        if (slot != null && isNumeric(expr.value)) {
+            try {
+                environment.assignNumberAt(slot.depth, slot.index, evaluateNumber(expr.value));
+            } catch (UnexpectedValue e) {
+                environment.assignAt(slot.depth, slot.index, e.value);
+            }
+            return;
+        }
+        visitAssignExpr(expr);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        Slot slot = locals.get(expr);
+        if (slot != null) {
+            environment.assignAt(slot.depth, slot.index, value);
         } else {
-            globals.assign(expr.name, value);
+            setGlobal(expr, value);
         }
         return value;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, frames.get(stmt)));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         Object condition = evaluate(stmt.condition);
         if (isTruthy(condition)) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
+        }
+        return Completion.NORMAL;
+    }
+
+    // The block a loop runs gets one frame for all iterations, started over
+    // each time, unless a function declared in it may keep the frame.
+    private Environment bodyFrame(Stmt body) {
+        if (body instanceof Stmt.Block block && !block.hasClosures) {
+            return new Environment(environment, frames.get(block));
         }
         return null;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    // counted like execute counts the block
+    private Completion executeBody(Stmt body, Environment frame) {
+        if (frame == null) return execute(body);
+        if (Metrics.ENABLED) Metrics.statements.increment();
+        if (Profiler.enabled) Profiler.hit(body);
+        frame.reset();
+        return executeBlock(((Stmt.Block)body).statements, frame);
+    }
+
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
@@ -250,45 +438,297 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        Environment frame = bodyFrame(stmt.body);
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = executeBody(stmt.body, frame);
+            if (completion != Completion.NORMAL) {
+                return completion;
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitForStmt(Stmt.For stmt) {
+        // one frame holds the loop variable for all iterations
+        Environment previous = environment;
+        try {
+            environment = new Environment(environment, frames.get(stmt));
+            if (stmt.initializer != null) execute(stmt.initializer);
+            Environment frame = bodyFrame(stmt.body);
+            while (isTruthy(evaluate(stmt.condition))) {
+                Completion completion = executeBody(stmt.body, frame);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
+                if (stmt.increment != null) evaluateForEffect(stmt.increment);
+            }
+            return Completion.NORMAL;
+        } finally {
+            environment = previous;
         }
-        return null;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0 -> {
+                return callable(expr.paren, callee, 0).call0(this);
+            }
+            case 1 -> {
+                Object a0 = evaluate(arguments.get(0));
+                return callable(expr.paren, callee, 1).call1(this, a0);
+            }
+            case 2 -> {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                return callable(expr.paren, callee, 2).call2(this, a0, a1);
+            }
+            case 3 -> {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                return callable(expr.paren, callee, 3).call3(this, a0, a1, a2);
+            }
+            case 4 -> {
+                Object a0 = evaluate(arguments.get(0));
+                Object a1 = evaluate(arguments.get(1));
+                Object a2 = evaluate(arguments.get(2));
+                Object a3 = evaluate(arguments.get(3));
+                return callable(expr.paren, callee, 4).call4(this, a0, a1, a2, a3);
+            }
+            default -> {
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return callable(expr.paren, callee, values.length).call(this, values);
+            }
         }
+    }
 
+    // checked after the arguments have been evaluated
+    LoxyCallable callable(Token paren, Object callee, int argumentCount) {
+        callSite = paren;
         if (!(callee instanceof LoxyCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            throw new RuntimeError(paren, "Can only call functions and classes");
         }
 
         LoxyCallable function = (LoxyCallable)callee;
-        if (function.arity() != arguments.size()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (function.arity() != argumentCount) {
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    argumentCount + ".");
         }
-
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = evaluate(stmt.value);
-        throw new Return(value);
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (Metrics.ENABLED) Metrics.returns.increment();
+        if (stmt.tailCall) {
+            return tailCall((Expr.Call)stmt.value);
+        }
+        returnValue = evaluate(stmt.value);
+        return Completion.RETURN;
+    }
+
+    // Like visitCallExpr, but a LoxyFunction callee is left to the
+    // trampoline in LoxyFunction instead of being called from here.
+    private Completion tailCall(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        if (count > 4) {
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = evaluate(arguments.get(i));
+            }
+            LoxyCallable function = callable(expr.paren, callee, count);
+            if (!(function instanceof LoxyFunction)) {
+                returnValue = function.call(this, values);
+                return Completion.RETURN;
+            }
+            tailCallee = (LoxyFunction)function;
+            tailArguments = values;
+            tailArgumentCount = count;
+            return Completion.TAIL_CALL;
+        }
+
+        Object a0 = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object a1 = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object a2 = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object a3 = count > 3 ? evaluate(arguments.get(3)) : null;
+        LoxyCallable function = callable(expr.paren, callee, count);
+        if (!(function instanceof LoxyFunction)) {
+            returnValue = switch (count) {
+                case 0 -> function.call0(this);
+                case 1 -> function.call1(this, a0);
+                case 2 -> function.call2(this, a0, a1);
+                case 3 -> function.call3(this, a0, a1, a2);
+                default -> function.call4(this, a0, a1, a2, a3);
+            };
+            return Completion.RETURN;
+        }
+        if (tailArguments.length < 4) {
+            tailArguments = new Object[4];
+        }
+        tailCallee = (LoxyFunction)function;
+        tailArguments[0] = a0;
+        tailArguments[1] = a1;
+        tailArguments[2] = a2;
+        tailArguments[3] = a3;
+        tailArgumentCount = count;
+        return Completion.TAIL_CALL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxyFunction function = new LoxyFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        LoxyFunction function = new LoxyFunction(stmt, environment, frames.get(stmt));
+        // Purity only picks top-level functions, which are declared once
+        if (memoized.remove(stmt)) {
+            MemoizedFunction memoizedFunction = new MemoizedFunction(function, stmt.name);
+            memoizedFunctions.add(memoizedFunction);
+            define(stmt.name, stmt.slot, memoizedFunction);
+            return Completion.NORMAL;
+        }
+        define(stmt.name, stmt.slot, function);
+        return Completion.NORMAL;
+    }
+
+    private final class Release implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final boolean bodies;
+
+        Release(boolean bodies) {
+            this.bodies = bodies;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            locals.remove(expr);
+            expr.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expr.left.accept(this);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            locals.remove(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            expr.callee.accept(this);
+            for (Expr argument : expr.arguments) {
+                argument.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            stmt.value.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            return null;
+        }
+
+        // the body of a declared function is kept, the LoxyFunction has
+        // its frame size already
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            frames.remove(stmt);
+            memoized.remove(stmt);
+            if (bodies) {
+                for (Stmt statement : stmt.body) {
+                    statement.accept(this);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            frames.remove(stmt);
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            stmt.condition.accept(this);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            stmt.condition.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            frames.remove(stmt);
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            stmt.condition.accept(this);
+            if (stmt.increment != null) stmt.increment.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
     }
 }
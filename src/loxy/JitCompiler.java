@@ -0,0 +1,727 @@
+package loxy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Compiles the body of a hot LoxyFunction into a JVM class implementing
+// LoxyCallable, defined as a hidden class so that HotSpot can optimize
+// it like any other Java code. Lox locals become JVM locals, operators
+// and calls go through the static helpers of JitRuntime.
+//
+// Only top-level functions without nested function declarations are
+// compiled (everything else needs a captured Environment); for those the
+// LoxyFunction keeps walking the tree. A call in tail position is handed
+// back to the LoxyFunction's trampoline through JitRuntime.tailCall.
+final class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int THRESHOLD = Integer.getInteger("loxy.jit.threshold", 1000);
+    static long compiled = 0;
+    static long rejected = 0;
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String msg) {
+            super(msg, null, false, false);
+        }
+    }
+
+    static LoxyCallable compile(Stmt.Function declaration) {
+        try {
+            JitCompiler compiler = new JitCompiler(declaration);
+            byte[] bytes = compiler.classFile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Object callable = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class))
+                    .invoke(compiler.constants.toArray());
+            compiled++;
+            return (LoxyCallable)callable;
+        } catch (Unsupported e) {
+            rejected++;
+            return null;
+        } catch (Throwable e) {
+            // a class the JVM refuses is a bug of the compiler,
+            // the tree walker still runs the function correctly
+            rejected++;
+            return null;
+        }
+    }
+
+    // JVM opcodes used by the compiler
+    private static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+            LDC_W = 0x13, LDC2_W = 0x14, ALOAD = 0x19, ASTORE = 0x3a, AALOAD = 0x32, AASTORE = 0x53,
+            POP = 0x57, DUP = 0x59, SWAP = 0x5f, IFEQ = 0x99, IFNE = 0x9a, GOTO = 0xa7,
+            IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1, GETSTATIC = 0xb2, GETFIELD = 0xb4,
+            PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+            INVOKEINTERFACE = 0xb9, ANEWARRAY = 0xbd, CHECKCAST = 0xc0, WIDE = 0xc4;
+
+    private static final String CLASS_NAME = "loxy/JitFunction";
+    private static final String RUNTIME = "loxy/JitRuntime";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String TOKEN = "Lloxy/Token;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;";
+    private static final String UNARY = "(Ljava/lang/Object;" + TOKEN + ")Ljava/lang/Object;";
+    private static final String LIST_CALL = "(Lloxy/Interpreter;Ljava/util/List;)Ljava/lang/Object;";
+    private static final String ARRAY_CALL = "(Lloxy/Interpreter;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    private final Stmt.Function declaration;
+    // objects the generated code refers to, such as Tokens for error messages
+    private final List<Object> constants = new ArrayList<>();
+    private final ConstantPool pool = new ConstantPool();
+    private final Stack<Map<String, Integer>> scopes = new Stack<>();
+    private Code code;
+    private int nextLocal;
+
+    private JitCompiler(Stmt.Function declaration) {
+        this.declaration = declaration;
+    }
+
+    private byte[] classFile() {
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef(OBJECT);
+        int callable = pool.classRef("loxy/LoxyCallable");
+        int constantsField = pool.fieldRef(CLASS_NAME, "constants", "[Ljava/lang/Object;");
+
+        Code init = new Code();
+        init.op(0x2a, 1); // aload_0
+        init.op(INVOKESPECIAL, -1);
+        init.u2(pool.methodRef(OBJECT, "<init>", "()V"));
+        init.op(0x2a, 1);
+        init.op(0x2b, 1); // aload_1
+        init.op(PUTFIELD, -2);
+        init.u2(constantsField);
+        init.op(RETURN, 0);
+        init.maxLocals = 2;
+
+        Code arity = new Code();
+        arity.op(SIPUSH, 1);
+        arity.u2(declaration.params.size());
+        arity.op(IRETURN, -1);
+        arity.maxLocals = 1;
+
+        // The body goes into the entry point matching the arity, its
+        // parameters are the JVM arguments. The other entry points forward to it.
+        int params = declaration.params.size();
+        boolean fixed = params <= 4;
+        String bodyName = fixed ? "call" + params : "call";
+        String bodyDesc = fixed ? fixedDescriptor(params) : ARRAY_CALL;
+        int bodyRef = pool.methodRef(CLASS_NAME, bodyName, bodyDesc);
+
+        code = new Code();
+        scopes.push(new HashMap<>());
+        if (fixed) {
+            nextLocal = 2; // this, interpreter
+            for (Token param : declaration.params) {
+                declare(param.lexeme);
+            }
+        } else {
+            nextLocal = 3; // this, interpreter, arguments
+            for (int i = 0; i < params; i++) {
+                code.op(0x2c, 1); // aload_2
+                pushInt(i);
+                code.op(AALOAD, -1);
+                storeLocal(declare(declaration.params.get(i).lexeme));
+            }
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        code.maxLocals = nextLocal;
+        Code body = code;
+
+        Code list = new Code();
+        list.op(0x2a, 1);
+        list.op(0x2b, 1);
+        if (fixed) {
+            for (int i = 0; i < params; i++) {
+                list.op(0x2c, 1);
+                pushInt(list, i);
+                list.op(INVOKEINTERFACE, -1);
+                list.u2(pool.interfaceMethodRef("java/util/List", "get", "(I)Ljava/lang/Object;"));
+                list.u1(2);
+                list.u1(0);
+            }
+        } else {
+            list.op(0x2c, 1);
+            list.op(INVOKEINTERFACE, 0);
+            list.u2(pool.interfaceMethodRef("java/util/List", "toArray", "()[Ljava/lang/Object;"));
+            list.u1(1);
+            list.u1(0);
+        }
+        list.op(INVOKEVIRTUAL, -(fixed ? params : 1) - 1);
+        list.u2(bodyRef);
+        list.op(ARETURN, -1);
+        list.maxLocals = 3;
+
+        Code array = null;
+        if (fixed) {
+            array = new Code();
+            array.op(0x2a, 1);
+            array.op(0x2b, 1);
+            for (int i = 0; i < params; i++) {
+                array.op(0x2c, 1);
+                pushInt(array, i);
+                array.op(AALOAD, -1);
+            }
+            array.op(INVOKEVIRTUAL, -params - 1);
+            array.u2(bodyRef);
+            array.op(ARETURN, -1);
+            array.maxLocals = 3;
+        }
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        // Version 49 class files are checked by the type inferencing
+        // verifier, so no StackMapTable has to be computed for branches.
+        out.u2(0);
+        out.u2(49);
+        // all constant pool entries have to exist before it is written
+        int initName = pool.utf8("<init>"), initDesc = pool.utf8("([Ljava/lang/Object;)V");
+        int callName = pool.utf8("call"), listDesc = pool.utf8(LIST_CALL), arrayDesc = pool.utf8(ARRAY_CALL);
+        int bodyNameIndex = pool.utf8(bodyName), bodyDescIndex = pool.utf8(bodyDesc);
+        int arityName = pool.utf8("arity"), arityDesc = pool.utf8("()I");
+        int codeName = pool.utf8("Code");
+        int fieldName = pool.utf8("constants"), fieldDesc = pool.utf8("[Ljava/lang/Object;");
+        pool.writeTo(out);
+
+        out.u2(0x0001 | 0x0010 | 0x0020); // public final super
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(1);
+        out.u2(callable);
+
+        out.u2(1);
+        out.u2(0x0002 | 0x0010); // private final
+        out.u2(fieldName);
+        out.u2(fieldDesc);
+        out.u2(0);
+
+        out.u2(array != null ? 5 : 4);
+        writeMethod(out, initName, initDesc, codeName, init);
+        writeMethod(out, arityName, arityDesc, codeName, arity);
+        writeMethod(out, callName, listDesc, codeName, list);
+        writeMethod(out, bodyNameIndex, bodyDescIndex, codeName, body);
+        if (array != null) {
+            writeMethod(out, callName, arrayDesc, codeName, array);
+        }
+        out.u2(0);
+        return out.toByteArray();
+    }
+
+    private static String fixedDescriptor(int params) {
+        return "(Lloxy/Interpreter;" + "Ljava/lang/Object;".repeat(params) + ")Ljava/lang/Object;";
+    }
+
+    private void writeMethod(Bytes out, int name, int descriptor, int codeName, Code code) {
+        if (code.length > 0xffff) throw new Unsupported("Function too large.");
+        out.u2(0x0001); // public
+        out.u2(name);
+        out.u2(descriptor);
+        out.u2(1);
+        out.u2(codeName);
+        out.u4(12 + code.length);
+        out.u2(code.maxStack);
+        out.u2(code.maxLocals);
+        out.u4(code.length);
+        out.write(code.bytes, code.length);
+        out.u2(0); // exception table
+        out.u2(0); // attributes
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        code.op(GETSTATIC, 1);
+        code.u2(pool.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
+        code.op(SWAP, 0);
+        code.op(INVOKEVIRTUAL, -2);
+        code.u2(pool.methodRef("java/io/PrintStream", "println", "(Ljava/lang/Object;)V"));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // returns TAIL_CALL and leaves the call to LoxyFunction, so that
+            // tail calls between compiled functions don't grow the stack
+            Expr.Call call = (Expr.Call)stmt.value;
+            compile(call.callee);
+            arguments(call.arguments);
+            code.op(0x2b, 1);
+            loadConstant(call.paren, "loxy/Token");
+            code.op(INVOKESTATIC, -3);
+            code.u2(pool.methodRef(RUNTIME, "tailCall",
+                    "(Ljava/lang/Object;[Ljava/lang/Object;Lloxy/Interpreter;" + TOKEN + ")Ljava/lang/Object;"));
+            code.op(ARETURN, -1);
+            return null;
+        }
+        compile(stmt.value);
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // declared before the initializer runs, like in the Resolver; a
+        // name of this scope declared again keeps its local and its value
+        // until the initializer has run
+        Integer redeclared = scopes.peek().get(stmt.name.lexeme);
+        int local = redeclared != null ? redeclared : declare(stmt.name.lexeme);
+        if (redeclared == null || stmt.initializer == null) {
+            code.op(ACONST_NULL, 1);
+            storeLocal(local);
+        }
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+            storeLocal(local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("Nested functions need a closure.");
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        truthy();
+        int elseJump = jump(IFEQ, -1);
+        compile(stmt.thenBranch);
+        int endJump = jump(GOTO, 0);
+        patch(elseJump, code.length);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patch(endJump, code.length);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = code.length;
+        compile(stmt.condition);
+        truthy();
+        int exitJump = jump(IFEQ, -1);
+        compile(stmt.body);
+        patch(jump(GOTO, 0), loopStart);
+        patch(exitJump, code.length);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        scopes.push(new HashMap<>());
+        if (stmt.initializer != null) compile(stmt.initializer);
+        int loopStart = code.length;
+        compile(stmt.condition);
+        truthy();
+        int exitJump = jump(IFEQ, -1);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            code.op(POP, -1);
+        }
+        patch(jump(GOTO, 0), loopStart);
+        patch(exitJump, code.length);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        Integer local = lookup(expr.name.lexeme);
+        if (local != null) {
+            code.op(DUP, 1);
+            storeLocal(local);
+        } else {
+            code.op(0x2b, 1); // aload_1, the interpreter
+            loadConstant(expr, "loxy/Expr$Assign");
+            code.op(INVOKESTATIC, -2);
+            code.u2(pool.methodRef(RUNTIME, "setGlobal",
+                    "(Ljava/lang/Object;Lloxy/Interpreter;Lloxy/Expr$Assign;)Ljava/lang/Object;"));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        code.op(DUP, 1);
+        truthy();
+        int endJump = jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, -1);
+        code.op(POP, -1);
+        compile(expr.right);
+        patch(endJump, code.length);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        loadConstant(expr.operator, "loxy/Token");
+        String helper = switch (expr.operator.type) {
+            case EQUAL_EQUAL -> "equal";
+            case BANG_EQUAL -> "notEqual";
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case PLUS -> "add";
+            case MINUS -> "subtract";
+            case STAR -> "multiply";
+            case SLASH -> "divide";
+            default -> throw new Unsupported("Unknown operation.");
+        };
+        code.op(INVOKESTATIC, -2);
+        code.u2(pool.methodRef(RUNTIME, helper, BINARY));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        loadConstant(expr.operator, "loxy/Token");
+        String helper = switch (expr.operator.type) {
+            case MINUS -> "negate";
+            case BANG -> "not";
+            default -> throw new Unsupported("Unexpected operator.");
+        };
+        code.op(INVOKESTATIC, -1);
+        code.u2(pool.methodRef(RUNTIME, helper, UNARY));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (value instanceof Boolean) {
+            code.op(GETSTATIC, 1);
+            code.u2(pool.fieldRef("java/lang/Boolean", (Boolean)value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"));
+        } else if (value instanceof Double) {
+            code.op(LDC2_W, 2);
+            code.u2(pool.doubleConstant((Double)value));
+            code.op(INVOKESTATIC, -1);
+            code.u2(pool.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"));
+        } else if (value instanceof String) {
+            code.op(LDC_W, 1);
+            code.u2(pool.string((String)value));
+        } else {
+            loadConstant(value, OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Integer local = lookup(expr.name.lexeme);
+        if (local != null) {
+            loadLocal(local);
+        } else {
+            // the function is declared at the top level,
+            // so whatever is not one of its locals is a global
+            code.op(0x2b, 1);
+            loadConstant(expr, "loxy/Expr$Variable");
+            code.op(INVOKESTATIC, -1);
+            code.u2(pool.methodRef(RUNTIME, "getGlobal", "(Lloxy/Interpreter;Lloxy/Expr$Variable;)Ljava/lang/Object;"));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        int count = expr.arguments.size();
+        if (count <= 4) {
+            // arguments stay on the operand stack for JitRuntime.callN
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+        } else {
+            arguments(expr.arguments);
+        }
+        code.op(0x2b, 1);
+        loadConstant(expr.paren, "loxy/Token");
+        if (count <= 4) {
+            code.op(INVOKESTATIC, -count - 2);
+            code.u2(pool.methodRef(RUNTIME, "call" + count, "(Ljava/lang/Object;"
+                    + "Ljava/lang/Object;".repeat(count) + "Lloxy/Interpreter;" + TOKEN + ")Ljava/lang/Object;"));
+        } else {
+            code.op(INVOKESTATIC, -3);
+            code.u2(pool.methodRef(RUNTIME, "call",
+                    "(Ljava/lang/Object;[Ljava/lang/Object;Lloxy/Interpreter;" + TOKEN + ")Ljava/lang/Object;"));
+        }
+        return null;
+    }
+
+    // the arguments in a new Object[]
+    private void arguments(List<Expr> arguments) {
+        pushInt(arguments.size());
+        code.op(ANEWARRAY, 0);
+        code.u2(pool.classRef(OBJECT));
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            pushInt(i);
+            compile(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+    }
+
+    private int declare(String name) {
+        int local = nextLocal++;
+        scopes.peek().put(name, local);
+        return local;
+    }
+
+    private Integer lookup(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer local = scopes.get(i).get(name);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    private void truthy() {
+        code.op(INVOKESTATIC, 0);
+        code.u2(pool.methodRef(RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z"));
+    }
+
+    private void loadConstant(Object value, String type) {
+        constants.add(value);
+        code.op(0x2a, 1); // aload_0
+        code.op(GETFIELD, 0);
+        code.u2(pool.fieldRef(CLASS_NAME, "constants", "[Ljava/lang/Object;"));
+        pushInt(constants.size() - 1);
+        code.op(AALOAD, -1);
+        code.op(CHECKCAST, 0);
+        code.u2(pool.classRef(type));
+    }
+
+    private void loadLocal(int local) {
+        localOp(ALOAD, local, 1);
+    }
+
+    private void storeLocal(int local) {
+        localOp(ASTORE, local, -1);
+    }
+
+    private void localOp(int op, int local, int delta) {
+        if (local > 0xff) {
+            code.op(WIDE, 0);
+            code.op(op, delta);
+            code.u2(local);
+        } else {
+            code.op(op, delta);
+            code.u1(local);
+        }
+    }
+
+    private void pushInt(int value) {
+        pushInt(code, value);
+    }
+
+    private static void pushInt(Code code, int value) {
+        if (value <= 5) {
+            code.op(ICONST_0 + value, 1);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH, 1);
+            code.u1(value);
+        } else {
+            code.op(SIPUSH, 1);
+            code.u2(value);
+        }
+    }
+
+    private int jump(int op, int delta) {
+        int at = code.length;
+        code.op(op, delta);
+        code.u2(0);
+        return at;
+    }
+
+    private void patch(int jump, int target) {
+        int offset = target - jump;
+        if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) {
+            throw new Unsupported("Jump too far.");
+        }
+        code.bytes[jump + 1] = (byte)(offset >> 8);
+        code.bytes[jump + 2] = (byte)offset;
+    }
+
+    private static class Bytes {
+        byte[] bytes = new byte[64];
+        int length = 0;
+
+        void u1(int b) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte)b;
+        }
+
+        void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >> 16);
+            u2(v);
+        }
+
+        void write(byte[] source, int count) {
+            for (int i = 0; i < count; i++) u1(source[i]);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    // method body which keeps track of the operand stack depth
+    private static class Code extends Bytes {
+        int stack = 0;
+        int maxStack = 0;
+        int maxLocals = 0;
+
+        void op(int opcode, int delta) {
+            u1(opcode);
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+    }
+
+    private static class ConstantPool {
+        private final Bytes entries = new Bytes();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = indexes.get("Utf8 " + value);
+            if (index != null) return index;
+            entries.u1(1);
+            byte[] bytes = modifiedUtf8(value);
+            if (bytes.length > 0xffff) throw new Unsupported("String constant too long.");
+            entries.u2(bytes.length);
+            entries.write(bytes, bytes.length);
+            return add("Utf8 " + value, 1);
+        }
+
+        int classRef(String name) {
+            return entry(7, "Class " + name, utf8(name), -1);
+        }
+
+        int string(String value) {
+            return entry(8, "String " + value, utf8(value), -1);
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            String key = "Double " + bits;
+            Integer index = indexes.get(key);
+            if (index != null) return index;
+            entries.u1(6);
+            entries.u4((int)(bits >> 32));
+            entries.u4((int)bits);
+            return add(key, 2);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return entry(9, "Field " + owner + "." + name + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return entry(10, "Method " + owner + "." + name + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            return entry(11, "InterfaceMethod " + owner + "." + name + descriptor,
+                    classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return entry(12, "NameAndType " + name + descriptor, utf8(name), utf8(descriptor));
+        }
+
+        private int entry(int tag, String key, int first, int second) {
+            Integer index = indexes.get(key);
+            if (index != null) return index;
+            entries.u1(tag);
+            entries.u2(first);
+            if (second != -1) entries.u2(second);
+            return add(key, 1);
+        }
+
+        private int add(String key, int slots) {
+            int index = count;
+            count += slots;
+            if (count > 0xffff) throw new Unsupported("Too many constants.");
+            indexes.put(key, index);
+            return index;
+        }
+
+        void writeTo(Bytes out) {
+            out.u2(count);
+            out.write(entries.bytes, entries.length);
+        }
+
+        private static byte[] modifiedUtf8(String value) {
+            Bytes out = new Bytes();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c != 0 && c < 0x80) {
+                    out.u1(c);
+                } else if (c < 0x800) {
+                    out.u1(0xc0 | (c >> 6));
+                    out.u1(0x80 | (c & 0x3f));
+                } else {
+                    out.u1(0xe0 | (c >> 12));
+                    out.u1(0x80 | ((c >> 6) & 0x3f));
+                    out.u1(0x80 | (c & 0x3f));
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+}
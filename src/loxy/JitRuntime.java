@@ -0,0 +1,140 @@
+package loxy;
+
+import java.util.Objects;
+
+// Static helpers called from code generated by JitCompiler.
+// They mirror the checks of the Interpreter so compiled functions
+// fail with exactly the same runtime errors.
+final class JitRuntime {
+    // returned by compiled code in place of a value when it has left a
+    // call in tail position to the trampoline in LoxyFunction
+    static final Object TAIL_CALL = new Object();
+
+    private JitRuntime() {
+    }
+
+    static boolean isTruthy(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean)value;
+        } else {
+            return value != null;
+        }
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        } else if (left instanceof Rope && right instanceof Rope) {
+            return ((Rope)left).concat((Rope)right);
+        } else {
+            throw new RuntimeError(operator, "Unexpected operands");
+        }
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left / (double)right;
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right, Token operator) {
+        return Objects.equals(left, right);
+    }
+
+    static Object notEqual(Object left, Object right, Token operator) {
+        return !Objects.equals(left, right);
+    }
+
+    static Object negate(Object value, Token operator) {
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(operator, "Number expected.");
+        }
+        return -(double)value;
+    }
+
+    static Object not(Object value, Token operator) {
+        if (value instanceof Boolean) {
+            return !(Boolean)value;
+        } else {
+            return value == null;
+        }
+    }
+
+    static Object getGlobal(Interpreter interpreter, Expr.Variable expr) {
+        return interpreter.getGlobal(expr);
+    }
+
+    static Object setGlobal(Object value, Interpreter interpreter, Expr.Assign expr) {
+        interpreter.setGlobal(expr, value);
+        return value;
+    }
+
+    static Object call0(Object callee, Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, 0).call0(interpreter);
+    }
+
+    static Object call1(Object callee, Object a0, Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, 1).call1(interpreter, a0);
+    }
+
+    static Object call2(Object callee, Object a0, Object a1, Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, 2).call2(interpreter, a0, a1);
+    }
+
+    static Object call3(Object callee, Object a0, Object a1, Object a2, Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, 3).call3(interpreter, a0, a1, a2);
+    }
+
+    static Object call4(Object callee, Object a0, Object a1, Object a2, Object a3,
+                        Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, 4).call4(interpreter, a0, a1, a2, a3);
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        return interpreter.callable(paren, callee, arguments.length).call(interpreter, arguments);
+    }
+
+    static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        LoxyCallable function = interpreter.callable(paren, callee, arguments.length);
+        if (!(function instanceof LoxyFunction)) {
+            return function.call(interpreter, arguments);
+        }
+        interpreter.deferCall((LoxyFunction)function, arguments);
+        return TAIL_CALL;
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            throw new RuntimeError(operator, "Number expected.");
+        }
+    }
+}
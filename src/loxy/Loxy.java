@@ -1,62 +1,253 @@
 package loxy;
 
+import loxy.vm.VM;
+import loxy.vm.VmError;
+import loxy.vm.VmFunction;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Loxy {
     static boolean hasError = false;
+    // a diagnostic was printed, even one that lets the program run
+    static boolean hasDiagnostic = false;
     static Interpreter interpreter = new Interpreter();
+    // shared by every line of a REPL session
+    static Resolver resolver = new Resolver(interpreter);
+    static Optimizer optimizer = new Optimizer(interpreter);
+    // run on the bytecode VM instead of walking the tree (--vm)
+    static boolean useVm = false;
+    static VM vm;
+    // print interpreter statistics after running a file (--stats)
+    static boolean showStats = false;
+    // simplify the tree before running it (on unless --no-optimize)
+    static boolean optimize = true;
+    // cache the results of pure functions (--memoize)
+    static boolean memoize = false;
+    // read the whole file and scan it on all cores (--parallel-scan)
+    static boolean parallelScan = false;
+    // keep the compiled program next to the script (--cache)
+    static boolean useCache = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
+        Metrics.register();
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                useVm = true;
+                vm = new VM();
+            } else if (arg.equals("--jit")) {
+                interpreter.jit = true;
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.equals("--memoize")) {
+                memoize = true;
+            } else if (arg.equals("--cache")) {
+                useCache = true;
+            } else if (arg.equals("--parallel-scan")) {
+                parallelScan = true;
+            } else if (arg.equals("--profile")) {
+                Profiler.enabled = true;
+            } else if (arg.equals("--stats")) {
+                showStats = true;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (Profiler.enabled && useVm) {
+            // the VM's calls never reach the profiler
+            System.out.println("--profile only works with the tree walker, not --vm");
+            System.exit(64);
+        }
+        if (Profiler.enabled && paths.size() == 0) {
+            // the report is written when a script finishes, and every REPL
+            // line is line 1
+            System.err.println("[profile] --profile needs a script, the REPL runs unprofiled");
+            Profiler.enabled = false;
+        }
+        if (Profiler.enabled) {
+            // compiled functions call each other directly, out of sight
+            interpreter.jit = false;
+        }
+        if (paths.size() == 0) {
             runPrompt();
-        } else if (args.length == 1) {
-            String filepath = args[0];
+        } else if (paths.size() == 1) {
+            String filepath = paths.get(0);
             runFile(filepath);
+        } else {
+            System.out.println("Usage: loxy [--vm] [--jit] [--no-optimize] [--memoize] [--parallel-scan] [--cache] [--profile] [--stats] [script]");
+            System.exit(64);
         }
     }
 
     public static void runPrompt() throws IOException {
+        // Purity only sees one line at a time, it can't tell when a later
+        // line redefines a global that a memoized function calls
+        memoize = false;
         String line;
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
             line = reader.readLine();
             if (line == null) break;
-            run(line);
+            List<Stmt> statements = compile(new Scanner(line));
+            if (!hasError) {
+                execute(statements);
+                // keeps the side tables as large as the live functions
+                interpreter.release(statements);
+            }
             hasError = false;
         }
     }
 
     public static void runFile(String filepath) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(filepath));
-        String source = new String(bytes);
-        run(source);
+        Path path = Paths.get(filepath);
+        List<Stmt> statements;
+        if (useCache) {
+            Path cached = Paths.get(filepath.concat(".cache"));
+            byte[] key = ProgramCache.key(path, optimize);
+            Events.Phase phase = Events.begin("load");
+            statements = ProgramCache.load(cached, key, interpreter);
+            Events.end(phase);
+            if (statements == null) {
+                statements = compile(path);
+                // a cached program would run without its diagnostics
+                if (!hasError && !hasDiagnostic) {
+                    ProgramCache.store(cached, key, statements, interpreter);
+                }
+            }
+        } else {
+            statements = compile(path);
+        }
+        if (!hasError) {
+            if (Profiler.enabled) Profiler.start();
+            execute(statements);
+            if (Profiler.enabled) {
+                Profiler.stop();
+                Profiler.report(System.err, System.getProperty("loxy.profile.stacks", "profile.collapsed"));
+            }
+        }
+        if (showStats) {
+            printStats();
+        }
         if (hasError) {
             System.exit(65);
         }
     }
 
     public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        ArrayList<Token> tokens = scanner.scanTokens();
+        run(new Scanner(source));
+    }
 
-        Parser parser = new Parser(tokens);
+    static void run(TokenSource source) {
+        List<Stmt> statements = compile(source);
+        if (hasError) return;
+        execute(statements);
+    }
+
+    private static List<Stmt> compile(Path path) throws IOException {
+        if (parallelScan) {
+            byte[] bytes = Files.readAllBytes(path);
+            Events.Phase phase = Events.begin("scan");
+            long start = System.nanoTime();
+            ParallelScanner scanner = new ParallelScanner(new String(bytes, StandardCharsets.UTF_8).toCharArray());
+            if (Metrics.ENABLED) Metrics.scanTime.add(System.nanoTime() - start);
+            Events.end(phase);
+            return compile(scanner);
+        }
+        // the scanner reads the file as the parser asks for tokens
+        try (Reader reader = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8)) {
+            return compile(new Scanner(reader));
+        }
+    }
+
+    // the resolved and optimized program, ready to run unless hasError
+    static List<Stmt> compile(TokenSource source) {
+        Events.Phase phase = Events.begin("parse");
+        long start = System.nanoTime();
+        TimedSource scanner = null;
+        if (source instanceof Scanner) {
+            // scanning happens in batches while parsing
+            scanner = new TimedSource(source);
+            source = scanner;
+        }
+        Parser parser = new Parser(source);
         List<Stmt> statements = parser.parse();
+        long scanned = scanner == null ? 0 : scanner.nanos;
+        if (Metrics.ENABLED) Metrics.scanTime.add(scanned);
+        if (Metrics.ENABLED) Metrics.parseTime.add(System.nanoTime() - start - scanned);
+        Events.end(phase);
 
-        if (hasError) return;
-        Resolver resolver = new Resolver(interpreter);
+        if (hasError) return statements;
+        phase = Events.begin("resolve");
+        start = System.nanoTime();
         resolver.resolve(statements);
+        if (Metrics.ENABLED) Metrics.resolveTime.add(System.nanoTime() - start);
+        Events.end(phase);
+        if (optimize) {
+            phase = Events.begin("optimize");
+            start = System.nanoTime();
+            optimizer.optimize(statements);
+            if (Metrics.ENABLED) Metrics.optimizeTime.add(System.nanoTime() - start);
+            Events.end(phase);
+        }
+        return statements;
+    }
 
-        interpreter.interpret(statements);
+    static void execute(List<Stmt> statements) {
+        Events.Phase phase = Events.begin("interpret");
+        interpret(statements);
+        Events.end(phase);
+    }
+
+    private static void interpret(List<Stmt> statements) {
+        if (useVm) {
+            List<VmFunction> scripts = new Compiler().compile(statements);
+            if (hasError) return;
+            for (VmFunction script : scripts) {
+                try {
+                    vm.interpret(script);
+                } catch (VmError e) {
+                    // reported just like the tree walker's errors
+                    RuntimeError error = new RuntimeError(
+                            new Token(null, e.lexeme, null, e.line_number), e.getMessage());
+                    runtimeError(error.token, error.toString());
+                }
+            }
+        } else {
+            if (memoize) {
+                new Purity(interpreter).analyze(statements);
+            }
+            interpreter.interpret(statements);
+        }
+    }
+
+    static void printStats() {
+        System.err.printf("[stats] binary nodes specialized: %d, deoptimized: %d%n",
+                BinaryNode.specialized, BinaryNode.deoptimized);
+        System.err.printf("[stats] functions compiled: %d, rejected: %d%n",
+                JitCompiler.compiled, JitCompiler.rejected);
+        System.err.printf("[stats] optimizer removed nodes: %d%n", Optimizer.removed);
+        for (MemoizedFunction function : interpreter.memoizedFunctions) {
+            System.err.printf("[stats] memoized %s hit: %d, missed: %d, evicted: %d%n",
+                    function.name(), function.hits, function.misses, function.evictions);
+        }
+        System.err.printf("[stats] program cache hits: %d, misses: %d%n",
+                ProgramCache.hits, ProgramCache.misses);
+        System.err.printf("[stats] chunks scanned in parallel: %d, rescanned: %d%n",
+                ParallelScanner.chunksScanned, ParallelScanner.rescanned);
     }
 
     static void error(int line_number, String msg) {
+        hasDiagnostic = true;
         report(line_number, "", msg);
     }
 
@@ -65,6 +256,7 @@ public class Loxy {
     }
 
     static void error(Token token, String msg) {
+        hasDiagnostic = true;
         if (token.type == TokenType.EOF) {
             report(token.line_number, " at end", msg);
         } else {
@@ -74,6 +266,8 @@ public class Loxy {
 
     static void runtimeError(Token token, String msg) {
         hasError = true;
+        if (Metrics.ENABLED) Metrics.errors.increment();
+        Events.runtimeError(token.line_number, msg);
         report(token.line_number, token.lexeme, msg);
     }
 }
@@ -1,8 +1,37 @@
 package loxy;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxyCallable {
     Object call(Interpreter interpreter, List<Object> arguments);
     int arity();
+
+    // Fixed-arity entry points, the interpreter calls the one matching
+    // the number of arguments so that a call needs no argument collection.
+    // Callables that care about call overhead override the one for their arity.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a0) {
+        return call(interpreter, new Object[]{a0});
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return call(interpreter, new Object[]{a0, a1});
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return call(interpreter, new Object[]{a0, a1, a2});
+    }
+
+    default Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return call(interpreter, new Object[]{a0, a1, a2, a3});
+    }
+
+    // used for more than four arguments
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
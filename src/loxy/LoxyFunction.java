@@ -6,23 +6,186 @@ public class LoxyFunction implements LoxyCallable {
 
     private final Stmt.Function declaration;
     private final Environment closure;
+    private final int frameSize;
+    // the JVM class the body was compiled into once the function got hot
+    private LoxyCallable compiled = null;
+    private int calls = 0;
 
-    LoxyFunction(Stmt.Function declaration, Environment closure) {
+    LoxyFunction(Stmt.Function declaration, Environment closure, int frameSize) {
         this.declaration = declaration;
         this.closure = closure;
+        this.frameSize = frameSize;
     }
 
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call(interpreter, arguments));
+        }
+        Environment environment = new Environment(closure, frameSize);
         for (int i = 0; i < declaration.params.size(); i++){
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(arguments.get(i));
+        }
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call(interpreter, arguments));
+        }
+        Environment environment = new Environment(closure, frameSize);
+        for (Object argument : arguments) {
+            environment.define(argument);
+        }
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call0(interpreter));
+        }
+        return execute(interpreter, new Environment(closure, frameSize));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call1(interpreter, a0));
+        }
+        Environment environment = new Environment(closure, frameSize);
+        environment.define(a0);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call2(interpreter, a0, a1));
+        }
+        Environment environment = new Environment(closure, frameSize);
+        environment.define(a0);
+        environment.define(a1);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call3(interpreter, a0, a1, a2));
+        }
+        Environment environment = new Environment(closure, frameSize);
+        environment.define(a0);
+        environment.define(a1);
+        environment.define(a2);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        if (isCompiled(interpreter)) {
+            return finish(interpreter, compiled.call4(interpreter, a0, a1, a2, a3));
+        }
+        Environment environment = new Environment(closure, frameSize);
+        environment.define(a0);
+        environment.define(a1);
+        environment.define(a2);
+        environment.define(a3);
+        return execute(interpreter, environment);
+    }
+
+    // every call and tail call starts here
+    private boolean isCompiled(Interpreter interpreter) {
+        if (Metrics.ENABLED) Metrics.calls.increment();
+        if (compiled != null) return true;
+        if (interpreter.jit && ++calls == JitCompiler.THRESHOLD && closure == interpreter.globals) {
+            compiled = JitCompiler.compile(declaration);
+        }
+        return compiled != null;
+    }
+
+    // The result of compiled code, which returns TAIL_CALL for a call in
+    // tail position and leaves the callee to the same loop as run.
+    private static Object finish(Interpreter interpreter, Object result) {
+        if (result != JitRuntime.TAIL_CALL) return result;
+        LoxyFunction callee = interpreter.tailCallee;
+        interpreter.tailCallee = null;
+        while (callee.isCompiled(interpreter)) {
+            result = callee.compiled.call(interpreter, interpreter.takeTailArguments());
+            if (result != JitRuntime.TAIL_CALL) return result;
+            callee = interpreter.tailCallee;
+            interpreter.tailCallee = null;
+        }
+        Environment environment = new Environment(callee.closure, callee.frameSize);
+        interpreter.defineTailArguments(environment);
+        return callee.execute(interpreter, environment);
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment) {
+        if (Events.sampleCall()) {
+            Events.Call event = new Events.Call();
+            if (event.isEnabled()) {
+                // tail calls made from here are part of this event
+                event.function = declaration.name.lexeme;
+                event.line = interpreter.callSite.line_number;
+                event.begin();
+                try {
+                    return profile(interpreter, environment);
+                } finally {
+                    event.commit();
+                }
+            }
         }
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch(Return returnValue) {
-            return returnValue.value;
+        return profile(interpreter, environment);
+    }
+
+    private Object profile(Interpreter interpreter, Environment environment) {
+        if (Profiler.enabled) {
+            Profiler.enter(declaration);
+            try {
+                return run(interpreter, environment);
+            } finally {
+                Profiler.exit();
+            }
+        }
+        return run(interpreter, environment);
+    }
+
+    private Object run(Interpreter interpreter, Environment environment) {
+        LoxyFunction function = this;
+        while (true) {
+            Interpreter.Completion completion = interpreter.executeBlock(function.declaration.body, environment);
+            if (completion == Interpreter.Completion.NORMAL) {
+                return null;
+            }
+            if (completion == Interpreter.Completion.RETURN) {
+                return interpreter.takeReturnValue();
+            }
+            // a call in tail position, run the callee in this loop
+            // instead of nesting it on the Java stack
+            LoxyFunction callee = interpreter.tailCallee;
+            interpreter.tailCallee = null;
+            while (callee.isCompiled(interpreter)) {
+                Object result = callee.compiled.call(interpreter, interpreter.takeTailArguments());
+                if (result != JitRuntime.TAIL_CALL) return result;
+                // compiled code hands its own tail calls back
+                callee = interpreter.tailCallee;
+                interpreter.tailCallee = null;
+            }
+            if (callee == function && !function.declaration.hasClosures) {
+                // no closure can hold on to the frame, so it can be reused
+                environment.reset();
+            } else {
+                environment = new Environment(callee.closure, callee.frameSize);
+            }
+            interpreter.defineTailArguments(environment);
+            if (Profiler.enabled) {
+                // the callee takes the caller's place on the stack too
+                Profiler.exit();
+                Profiler.enter(callee.declaration);
+            }
+            function = callee;
         }
-        return null;
     }
 
     @Override
@@ -0,0 +1,123 @@
+package loxy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Wraps a function that Purity found to depend on its arguments only.
+// Results are kept in a bounded cache keyed by the arguments, the least
+// recently used entry is evicted once the cache is full. Each function
+// counts its own hits, misses and evictions for --stats.
+public class MemoizedFunction implements LoxyCallable {
+    static final int CAPACITY = Integer.getInteger("loxy.memo.size", 4096);
+
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+
+    // the result of a failed lookup, and the key of a call without arguments
+    private static final Object MISSING = new Object();
+
+    private final LoxyFunction function;
+    private final Token name;
+    private final Map<Object, Object> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            if (size() > CAPACITY) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    MemoizedFunction(LoxyFunction function, Token name) {
+        this.function = function;
+        this.name = name;
+    }
+
+    // A single argument is its own key, several are compared as a list.
+    // Lists of Doubles, Strings and Booleans have value equality, functions
+    // are compared by identity, which is what Loxy's == does as well.
+    private Object lookup(Object key) {
+        Object value = cache.get(key);
+        if (value != null || cache.containsKey(key)) {
+            hits++;
+            return value;
+        }
+        misses++;
+        return MISSING;
+    }
+
+    private Object store(Object key, Object value) {
+        cache.put(key, value);
+        return value;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call(interpreter, arguments.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Object key = Arrays.asList(arguments.clone());
+        Object value = lookup(key);
+        if (value != MISSING) return value;
+        return store(key, function.call(interpreter, arguments));
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        Object value = lookup(MISSING);
+        if (value != MISSING) return value;
+        return store(MISSING, function.call0(interpreter));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        Object value = lookup(a0);
+        if (value != MISSING) return value;
+        return store(a0, function.call1(interpreter, a0));
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        Object key = Arrays.asList(a0, a1);
+        Object value = lookup(key);
+        if (value != MISSING) return value;
+        return store(key, function.call2(interpreter, a0, a1));
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        Object key = Arrays.asList(a0, a1, a2);
+        Object value = lookup(key);
+        if (value != MISSING) return value;
+        return store(key, function.call3(interpreter, a0, a1, a2));
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        Object key = Arrays.asList(a0, a1, a2, a3);
+        Object value = lookup(key);
+        if (value != MISSING) return value;
+        return store(key, function.call4(interpreter, a0, a1, a2, a3));
+    }
+
+    // the name and line of the declaration, as the profiler shows them
+    String name() {
+        return name.lexeme + ":" + name.line_number;
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package loxy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Live counters of the interpreter's work, registered as an MBean
+// (loxy:type=Interpreter) so that monitoring can scrape them over JMX.
+// Registration is opt-in, with -Dloxy.jmx=true or when the JVM was started
+// for remote JMX (-Dcom.sun.management.jmxremote...): setting up the
+// platform MBean server takes about half a second, which then happens on
+// a thread of its own while the script starts running.
+// The counters are LongAdders so that the JMX thread reads current sums.
+// They cost a fifth of a call-heavy script's time, so without JMX they
+// are null and every count is behind the ENABLED constant, which the JVM
+// folds away.
+public class Metrics implements MetricsMBean {
+    static final boolean ENABLED = Boolean.getBoolean("loxy.jmx")
+            || System.getProperty("com.sun.management.jmxremote") != null;
+
+    static final LongAdder environments = ENABLED ? new LongAdder() : null;
+    static final LongAdder calls = ENABLED ? new LongAdder() : null;
+    static final LongAdder nativeCalls = ENABLED ? new LongAdder() : null;
+    static final LongAdder returns = ENABLED ? new LongAdder() : null;
+    static final LongAdder statements = ENABLED ? new LongAdder() : null;
+    static final LongAdder errors = ENABLED ? new LongAdder() : null;
+    // front-end time per phase, in nanoseconds
+    static final LongAdder scanTime = ENABLED ? new LongAdder() : null;
+    static final LongAdder parseTime = ENABLED ? new LongAdder() : null;
+    static final LongAdder resolveTime = ENABLED ? new LongAdder() : null;
+    static final LongAdder optimizeTime = ENABLED ? new LongAdder() : null;
+
+    static void register() {
+        if (!ENABLED) return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ObjectName name = new ObjectName("loxy:type=Interpreter");
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), name);
+                } catch (JMException e) {
+                    System.err.println("[metrics] " + e);
+                }
+            }
+        }, "loxy-metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getNativeCalls() {
+        return nativeCalls.sum();
+    }
+
+    @Override
+    public long getReturns() {
+        return returns.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getScanTime() {
+        return scanTime.sum();
+    }
+
+    @Override
+    public long getParseTime() {
+        return parseTime.sum();
+    }
+
+    @Override
+    public long getResolveTime() {
+        return resolveTime.sum();
+    }
+
+    @Override
+    public long getOptimizeTime() {
+        return optimizeTime.sum();
+    }
+}
@@ -0,0 +1,25 @@
+package loxy;
+
+// What Metrics shows over JMX, under loxy:type=Interpreter. Times are in
+// nanoseconds.
+public interface MetricsMBean {
+    long getEnvironmentsAllocated();
+
+    long getFunctionCalls();
+
+    long getNativeCalls();
+
+    long getReturns();
+
+    long getRuntimeErrors();
+
+    long getStatementsExecuted();
+
+    long getScanTime();
+
+    long getParseTime();
+
+    long getResolveTime();
+
+    long getOptimizeTime();
+}
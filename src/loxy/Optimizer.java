@@ -0,0 +1,440 @@
+package loxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Simplifies the resolved tree before it runs: folds operators whose
+// operands are literals, drops if and while branches that can never run
+// and short-circuits logical operators with a literal left operand.
+// Only operations that can't fail are folded, so runtime errors keep
+// their operator token and line number.
+// Identities are applied where they are exact: x * 1, 1 * x, x / 1,
+// x - 0 and -(-x) when x can only be a number, !!x when x can only be a
+// boolean, and !!x anywhere only its truthiness counts. x + 0 isn't an
+// identity, -0 + 0 is 0.
+// Nodes carrying resolver state (blocks, functions, variables) are kept,
+// statement lists are rewritten in place. Rewritten nodes take over the
+// side-table entries of the ones they replace, dropped code gives them up.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static long removed = 0;
+
+    private final Interpreter interpreter;
+
+    Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void optimize(List<Stmt> statements) {
+        int before = Counter.count(statements);
+        optimizeAll(statements);
+        removed += before - Counter.count(statements);
+    }
+
+    private void optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt result = statement.accept(this);
+            if (result != null) optimized.add(result);
+        }
+        if (optimized.size() == statements.size()) {
+            for (int i = 0; i < optimized.size(); i++) {
+                statements.set(i, optimized.get(i));
+            }
+        } else {
+            statements.clear();
+            statements.addAll(optimized);
+        }
+    }
+
+    // a statement that is gone, where the tree still needs one
+    private Stmt orEmpty(Stmt stmt) {
+        if (stmt != null) return stmt;
+        Stmt.Block empty = new Stmt.Block(new ArrayList<>());
+        interpreter.resolveFrame(empty, 0);
+        return empty;
+    }
+
+    private static boolean isTruthy(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean)value;
+        } else {
+            return value != null;
+        }
+    }
+
+    // whether GENERIC can apply the operator without a runtime error
+    private static boolean canFold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL, BANG_EQUAL:
+                return true;
+            case PLUS:
+                return (left instanceof Double && right instanceof Double)
+                        || (left instanceof Rope && right instanceof Rope);
+            case MINUS, STAR, SLASH, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL:
+                return left instanceof Double && right instanceof Double;
+            default:
+                return false;
+        }
+    }
+
+    // whether the expression, if it doesn't fail, evaluates to a number
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return isNumber(grouping.expression);
+        if (expr instanceof Expr.Literal literal) return literal.value instanceof Double;
+        if (expr instanceof Expr.Unary unary) return unary.operator.type == TokenType.MINUS;
+        if (expr instanceof Expr.Binary binary) {
+            switch (binary.operator.type) {
+                case MINUS, STAR, SLASH:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // whether the expression, if it doesn't fail, evaluates to a boolean
+    private static boolean isBoolean(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return isBoolean(grouping.expression);
+        if (expr instanceof Expr.Literal literal) return literal.value instanceof Boolean;
+        if (expr instanceof Expr.Unary unary) return unary.operator.type == TokenType.BANG;
+        if (expr instanceof Expr.Binary binary) {
+            switch (binary.operator.type) {
+                case EQUAL_EQUAL, BANG_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // Double.equals tells 0 from -0
+    private static boolean isLiteral(Expr expr, double value) {
+        return expr instanceof Expr.Literal literal && Double.valueOf(value).equals(literal.value);
+    }
+
+    // the operand of !!x, or null
+    private static Expr doubleNegated(Expr expr) {
+        while (expr instanceof Expr.Grouping grouping) expr = grouping.expression;
+        if (!(expr instanceof Expr.Unary outer) || outer.operator.type != TokenType.BANG) return null;
+        expr = outer.right;
+        while (expr instanceof Expr.Grouping grouping) expr = grouping.expression;
+        if (!(expr instanceof Expr.Unary inner) || inner.operator.type != TokenType.BANG) return null;
+        return inner.right;
+    }
+
+    // a condition only asks for truthiness, which !!x doesn't change
+    private static Expr condition(Expr expr) {
+        Expr operand;
+        while ((operand = doubleNegated(expr)) != null) expr = operand;
+        return expr;
+    }
+
+    // the operand that a binary operator leaves unchanged, or null
+    private static Expr identity(TokenType operator, Expr left, Expr right) {
+        switch (operator) {
+            case STAR:
+                if (isLiteral(right, 1) && isNumber(left)) return left;
+                if (isLiteral(left, 1) && isNumber(right)) return right;
+                return null;
+            case SLASH:
+                return isLiteral(right, 1) && isNumber(left) ? left : null;
+            case MINUS:
+                return isLiteral(right, 0) && isNumber(left) ? left : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = expr.value.accept(this);
+        if (value == expr.value) return expr;
+        // the Resolver keyed the slot on the original node
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        interpreter.moveResolution(expr, assign);
+        return assign;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = expr.left.accept(this);
+        Expr right = expr.right.accept(this);
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = isTruthy(literal.value);
+            if (truthy == (expr.operator.type == TokenType.OR)) {
+                interpreter.discard(right);
+                return left;
+            }
+            return right;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = expr.left.accept(this);
+        Expr right = expr.right.accept(this);
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r
+                && canFold(expr.operator.type, l.value, r.value)) {
+            return new Expr.Literal(BinaryNode.GENERIC.execute(expr, l.value, r.value));
+        }
+        Expr operand = identity(expr.operator.type, left, right);
+        if (operand != null) return operand;
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = expr.right.accept(this);
+        if (right instanceof Expr.Literal literal) {
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!isTruthy(literal.value));
+            }
+            if (expr.operator.type == TokenType.MINUS && literal.value instanceof Double) {
+                return new Expr.Literal(-(double)literal.value);
+            }
+        }
+        if (right instanceof Expr.Unary inner && inner.operator.type == expr.operator.type) {
+            if (expr.operator.type == TokenType.BANG && isBoolean(inner.right)) return inner.right;
+            if (expr.operator.type == TokenType.MINUS && isNumber(inner.right)) return inner.right;
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = expr.expression.accept(this);
+        if (expression instanceof Expr.Literal) return expression;
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        boolean changed = false;
+        Expr callee = expr.callee.accept(this);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            Expr optimized = argument.accept(this);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        if (!changed && callee == expr.callee) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = stmt.expression.accept(this);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = stmt.expression.accept(this);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = stmt.value.accept(this);
+        if (value == stmt.value) return stmt;
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall && value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = stmt.initializer.accept(this);
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var result = new Stmt.Var(stmt.name, initializer);
+        result.slot = stmt.slot;
+        return result;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        optimizeAll(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        optimizeAll(stmt.statements);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = condition(stmt.condition.accept(this));
+        if (condition instanceof Expr.Literal literal) {
+            boolean truthy = isTruthy(literal.value);
+            Stmt taken = truthy ? stmt.thenBranch : stmt.elseBranch;
+            Stmt dropped = truthy ? stmt.elseBranch : stmt.thenBranch;
+            if (dropped != null) interpreter.discard(dropped);
+            return taken == null ? null : taken.accept(this);
+        }
+        Stmt thenBranch = orEmpty(stmt.thenBranch.accept(this));
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch
+                && elseBranch == stmt.elseBranch) return stmt;
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = condition(stmt.condition.accept(this));
+        if (condition instanceof Expr.Literal literal && !isTruthy(literal.value)) {
+            interpreter.discard(stmt.body);
+            return null;
+        }
+        Stmt body = orEmpty(stmt.body.accept(this));
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt initializer = stmt.initializer == null ? null : stmt.initializer.accept(this);
+        Expr condition = condition(stmt.condition.accept(this));
+        // the initializer still has to run, in the loop's own scope
+        if (initializer == null && condition instanceof Expr.Literal literal
+                && !isTruthy(literal.value)) {
+            interpreter.discard(stmt);
+            return null;
+        }
+        Expr increment = stmt.increment == null ? null : stmt.increment.accept(this);
+        Stmt body = orEmpty(stmt.body.accept(this));
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) return stmt;
+        // keeps the frame the Resolver laid out for the loop
+        Stmt.For loop = new Stmt.For(initializer, condition, increment, body);
+        interpreter.moveFrame(stmt, loop);
+        return loop;
+    }
+
+    // counts the nodes of a tree, to report what the optimizer removed
+    private static final class Counter implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private static final Counter INSTANCE = new Counter();
+
+        static int count(List<Stmt> statements) {
+            int count = 0;
+            for (Stmt statement : statements) {
+                count += statement.accept(INSTANCE);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return 1 + expr.value.accept(this);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return 1 + expr.left.accept(this) + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return 1 + expr.left.accept(this) + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return 1 + expr.right.accept(this);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return 1 + expr.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int count = 1 + expr.callee.accept(this);
+            for (Expr argument : expr.arguments) {
+                count += argument.accept(this);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return 1 + stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return 1 + stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return 1 + stmt.value.accept(this);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            return 1 + (stmt.initializer == null ? 0 : stmt.initializer.accept(this));
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return 1 + count(stmt.statements);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return 1 + stmt.condition.accept(this) + stmt.thenBranch.accept(this)
+                    + (stmt.elseBranch == null ? 0 : stmt.elseBranch.accept(this));
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return 1 + stmt.condition.accept(this) + stmt.body.accept(this);
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt) {
+            return 1 + (stmt.initializer == null ? 0 : stmt.initializer.accept(this))
+                    + stmt.condition.accept(this)
+                    + (stmt.increment == null ? 0 : stmt.increment.accept(this))
+                    + stmt.body.accept(this);
+        }
+    }
+}
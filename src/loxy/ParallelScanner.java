@@ -0,0 +1,143 @@
+package loxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Scans a source held in memory on all cores (--parallel-scan). The
+// source is cut into chunks at line starts and every chunk is scanned on
+// its own, as if a token started right at the cut. That guess is wrong
+// only when the previous chunk's last token runs across the cut (a string
+// with a newline in it); then the chunk is scanned again from where that
+// token really ended, and so on down the chunks it affects.
+// Lines are counted from each chunk's start and moved down once the
+// chunks before it are known, and identifiers are interned while merging,
+// in source order, so the tokens are exactly the ones a Scanner produces.
+final class ParallelScanner implements TokenSource {
+    private static final int CHUNK = Math.max(1, Integer.getInteger("loxy.scan.chunk", 1 << 20));
+    static long chunksScanned = 0;
+    static long rescanned = 0;
+
+    private final char[] source;
+    private final Chunk[] chunks;
+    // the next token to hand out
+    private int chunk = 0;
+    private int index = 0;
+
+    ParallelScanner(char[] source) {
+        this.source = source;
+        this.chunks = split(source);
+        ForkJoinPool.commonPool().invoke(new ScanAll(0, chunks.length));
+        merge();
+        chunksScanned += chunks.length;
+    }
+
+    private static Chunk[] split(char[] source) {
+        List<Chunk> chunks = new ArrayList<>();
+        int from = 0;
+        do {
+            int to = Math.min(from + CHUNK, source.length);
+            while (to < source.length && source[to - 1] != '\n') to++;
+            chunks.add(new Chunk(from, to, to == source.length));
+            from = to;
+        } while (from < source.length);
+        return chunks.toArray(new Chunk[0]);
+    }
+
+    private void merge() {
+        int position = 0;
+        int line = 1;
+        for (Chunk chunk : chunks) {
+            if (chunk.from != position) {
+                chunk.scan(source, position);
+                rescanned++;
+            }
+            TokenBuffer tokens = chunk.tokens;
+            for (int i = 0; i < tokens.count; i++) {
+                tokens.lines[i] += line - 1;
+                if (tokens.types[i] == TokenType.IDENTIFIER.ordinal()) {
+                    tokens.setSymbol(i, Symbols.intern(source, tokens.starts[i], tokens.lengths[i]));
+                }
+            }
+            for (Scanner.Error error : chunk.errors) {
+                Loxy.hasError = true;
+                Loxy.error(error.line + line - 1, error.message);
+            }
+            line += chunk.lines;
+            position = chunk.end;
+        }
+    }
+
+    @Override
+    public void scan(TokenBuffer tokens) {
+        while (!tokens.isFull() && chunk < chunks.length) {
+            TokenBuffer scanned = chunks[chunk].tokens;
+            if (index == scanned.count) {
+                chunks[chunk++] = null;
+                index = 0;
+            } else {
+                int n = Math.min(scanned.count - index, tokens.capacity() - tokens.count);
+                tokens.addAll(scanned, index, n);
+                index += n;
+            }
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return chunk == chunks.length;
+    }
+
+    private static final class Chunk {
+        final int from;
+        final int to;
+        final boolean last;
+        TokenBuffer tokens;
+        List<Scanner.Error> errors;
+        // where scanning stopped and the lines it passed
+        int end;
+        int lines;
+
+        Chunk(int from, int to, boolean last) {
+            this.from = from;
+            this.to = to;
+            this.last = last;
+        }
+
+        void scan(char[] source, int start) {
+            Scanner scanner = new Scanner(source, start, to, last);
+            tokens = new TokenBuffer(Math.max(16, (to - start) / 4));
+            scanner.scan(tokens);
+            while (!scanner.isFinished()) {
+                tokens.grow();
+                scanner.scan(tokens);
+            }
+            errors = scanner.errors();
+            end = scanner.position();
+            lines = scanner.line_number - 1;
+        }
+    }
+
+    private final class ScanAll extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ScanAll(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunks[from].scan(source, chunks[from].from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScanAll(from, middle), new ScanAll(middle, to));
+            }
+        }
+    }
+}
@@ -1,25 +1,29 @@
 package loxy;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
 
     static class ParseException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
     }
 
-    List<Token> tokens;
-    int current = 0;
+    // Tokens are scanned a batch at a time into the struct-of-arrays
+    // buffer. The parser never looks further than the next token (at
+    // next) and back than the previous one, which survives a refill.
+    private final TokenSource source;
+    private final TokenBuffer tokens = new TokenBuffer(1024);
+    private int next = 0;
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    Parser(TokenSource source) {
+        this.source = source;
     }
 
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
         try {
-            while (!isAtEnd() && peek().type != TokenType.EOF) {
+            while (!isAtEnd() && !check(TokenType.EOF)) {
                 statements.add(declaration());
             }
         } catch(ParseException e) {
@@ -39,7 +43,8 @@ public class Parser {
     }
 
     Stmt function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expected IDENTIFIER.");
+        consume(TokenType.IDENTIFIER, "Expected IDENTIFIER.");
+        Token name = previous();
         consume(TokenType.LEFT_PAREN, "Expected '('.");
         List<Token> parameters = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -47,7 +52,8 @@ public class Parser {
                 if (parameters.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+                consume(TokenType.IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -58,7 +64,8 @@ public class Parser {
     }
 
     Stmt varDecl() {
-        Token name = consume(TokenType.IDENTIFIER, "Expected IDENTIFIER.");
+        consume(TokenType.IDENTIFIER, "Expected IDENTIFIER.");
+        Token name = previous();
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
@@ -132,7 +139,7 @@ public class Parser {
 
         Expr condition;
         if (match(TokenType.SEMICOLON)) {
-            condition = new Expr.Literal("true");
+            condition = new Expr.Literal(true);
         } else {
             condition = expression();
             consume(TokenType.SEMICOLON, "Expected ';'.");
@@ -147,17 +154,7 @@ public class Parser {
         consume(TokenType.RIGHT_PAREN, "Expected ')'.");
 
         Stmt body = statement();
-        if (increment != null) {
-            Stmt incrementStmt = new Stmt.Expression(increment);
-            body = new Stmt.Block(Arrays.asList(body, incrementStmt));
-        }
-        Stmt whileLoop = new Stmt.While(condition, body);
-
-        if (initializer != null) {
-            return new Stmt.Block(Arrays.asList(initializer, whileLoop));
-        } else {
-            return whileLoop;
-        }
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     List<Stmt> block() {
@@ -292,13 +289,14 @@ public class Parser {
                 arguments.add(expression());
             } while(match(TokenType.COMMA));
         }
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expected ')'.");
+        consume(TokenType.RIGHT_PAREN, "Expected ')'.");
+        Token paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }
 
     Expr primary() {
         if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(next - 1));
         }
         if (match(TokenType.TRUE)) return new Expr.Literal(true);
         if (match(TokenType.FALSE)) return new Expr.Literal(false);
@@ -325,29 +323,34 @@ public class Parser {
 
     boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return (peek().type == type);
+        return tokens.types[next] == type.ordinal();
     }
 
+    // true once the tokens have run out, otherwise the next one is buffered
     boolean isAtEnd() {
-        return current >= tokens.size();
+        if (next < tokens.count) return false;
+        if (source.isFinished()) return true;
+        tokens.keepLast();
+        next = tokens.count;
+        source.scan(tokens);
+        return next >= tokens.count;
     }
 
     Token peek() {
-        return tokens.get(current);
+        return isAtEnd() ? null : tokens.token(next);
     }
 
     Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(next - 1);
     }
 
-    Token advance() {
-        current++;
-        return tokens.get(current - 1);
+    void advance() {
+        next++;
     }
 
-    Token consume(TokenType type, String msg) {
+    void consume(TokenType type, String msg) {
         if (check(type)) {
-            return advance();
+            advance();
         } else {
             throw error(peek(), msg);
         }
@@ -0,0 +1,271 @@
+package loxy;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Times every LoxyFunction call and counts the statements run per line
+// (--profile). The interpreter checks enabled before calling in, so a run
+// without --profile pays one static read per call and per statement.
+// A shadow stack follows the Lox calls: each frame knows when it started
+// and how long its callees took, which gives a function's self time; its
+// total time is counted only for the outermost of its frames, so that
+// recursion isn't counted twice. The frames also build a call tree whose
+// self times are written as collapsed stacks for flame-graph tools.
+final class Profiler {
+    static boolean enabled = false;
+
+    private static final int TOP = 20;
+
+    private static final class Function {
+        final Stmt.Function declaration;
+        long calls = 0;
+        long total = 0;
+        long self = 0;
+        int active = 0; // its frames on the stack
+
+        Function(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+
+        String name() {
+            return declaration.name.lexeme + ":" + declaration.name.line_number;
+        }
+    }
+
+    // a path through the calls, the root stands for the top-level code
+    private static final class Node {
+        final Function function;
+        final Map<Function, Node> children = new HashMap<>();
+        long self = 0;
+
+        Node(Function function) {
+            this.function = function;
+        }
+
+        Node child(Function function) {
+            Node child = children.get(function);
+            if (child == null) {
+                child = new Node(function);
+                children.put(function, child);
+            }
+            return child;
+        }
+    }
+
+    private static final class Frame {
+        Node node;
+        long start;
+        long callees;
+    }
+
+    private static final Map<Stmt.Function, Function> functions = new HashMap<>();
+    private static final Map<Stmt, long[]> hits = new HashMap<>();
+    private static final Node root = new Node(null);
+    private static Frame[] stack = new Frame[64];
+    private static int depth = 0;
+
+    private Profiler() {
+    }
+
+    static void start() {
+        push(root);
+    }
+
+    static void stop() {
+        Frame frame = stack[--depth];
+        root.self += System.nanoTime() - frame.start - frame.callees;
+    }
+
+    static void enter(Stmt.Function declaration) {
+        Function function = functions.get(declaration);
+        if (function == null) {
+            function = new Function(declaration);
+            functions.put(declaration, function);
+        }
+        function.calls++;
+        function.active++;
+        push(stack[depth - 1].node.child(function));
+    }
+
+    static void exit() {
+        Frame frame = stack[--depth];
+        long elapsed = System.nanoTime() - frame.start;
+        long self = elapsed - frame.callees;
+        Function function = frame.node.function;
+        function.self += self;
+        if (--function.active == 0) {
+            function.total += elapsed;
+        }
+        frame.node.self += self;
+        stack[depth - 1].callees += elapsed;
+    }
+
+    static void hit(Stmt stmt) {
+        long[] count = hits.get(stmt);
+        if (count == null) {
+            count = new long[1];
+            hits.put(stmt, count);
+        }
+        count[0]++;
+    }
+
+    private static void push(Node node) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        Frame frame = stack[depth];
+        if (frame == null) {
+            frame = new Frame();
+            stack[depth] = frame;
+        }
+        depth++;
+        frame.node = node;
+        frame.callees = 0;
+        frame.start = System.nanoTime();
+    }
+
+    // the hottest functions and lines, and the call tree as collapsed stacks
+    static void report(PrintStream out, String stacks) throws IOException {
+        List<Function> sorted = new ArrayList<>(functions.values());
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+        out.printf("[profile] %-24s %12s %12s %12s%n", "function", "calls", "total ms", "self ms");
+        for (Function function : sorted.subList(0, Math.min(TOP, sorted.size()))) {
+            out.printf("[profile] %-24s %12d %12.3f %12.3f%n", function.name(), function.calls,
+                    function.total / 1e6, function.self / 1e6);
+        }
+
+        Map<Integer, Long> lines = new HashMap<>();
+        for (Map.Entry<Stmt, long[]> entry : hits.entrySet()) {
+            int line = entry.getKey().accept(Lines.INSTANCE);
+            if (line != -1) {
+                lines.merge(line, entry.getValue()[0], Long::sum);
+            }
+        }
+        List<Map.Entry<Integer, Long>> hottest = new ArrayList<>(lines.entrySet());
+        hottest.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        out.printf("[profile] %-24s %12s%n", "line", "hits");
+        for (Map.Entry<Integer, Long> line : hottest.subList(0, Math.min(TOP, hottest.size()))) {
+            out.printf("[profile] %-24d %12d%n", line.getKey(), line.getValue());
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(stacks)))) {
+            collapse(root, "<script>", writer);
+        }
+        out.printf("[profile] collapsed stacks (self ns) written to %s%n", stacks);
+    }
+
+    private static void collapse(Node node, String path, PrintWriter writer) {
+        if (node.self > 0) {
+            writer.println(path + " " + node.self);
+        }
+        for (Node child : node.children.values()) {
+            collapse(child, path + ";" + child.function.name(), writer);
+        }
+    }
+
+    // the line a statement starts on: that of its first token, -1 for a
+    // block, which is counted through its statements, or for a statement
+    // that kept no token
+    private static final class Lines implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        static final Lines INSTANCE = new Lines();
+
+        private int first(Expr expr, Token token) {
+            int line = expr == null ? -1 : expr.accept(this);
+            return line != -1 ? line : token.line_number;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return expr.name.line_number;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return first(expr.left, expr.operator);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return first(expr.left, expr.operator);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return expr.operator.line_number;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return expr.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return -1;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return expr.name.line_number;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            return first(expr.callee, expr.paren);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return stmt.keyword.line_number;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            return stmt.name.line_number;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return stmt.name.line_number;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return -1;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return stmt.condition.accept(this);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return stmt.condition.accept(this);
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt) {
+            int line = stmt.initializer == null ? -1 : stmt.initializer.accept(this);
+            return line != -1 ? line : stmt.condition.accept(this);
+        }
+    }
+}
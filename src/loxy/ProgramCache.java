@@ -0,0 +1,602 @@
+package loxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps the resolved (and optimized) program of a script in a file next
+// to it (--cache), so a run of an unchanged script skips scanning,
+// parsing, resolving and optimizing. The file starts with the key, a hash
+// of the source; after it come the strings the program uses and then the tree in
+// prefix order, each node a tag followed by its fields, with counts, lines
+// and string indexes as variable-length integers. Variables carry
+// their Slot, declarations their slot and blocks, loops and functions
+// their frame size, which go
+// back into the Interpreter's side tables as the tree is rebuilt.
+// Large files are mapped rather than read, the nodes are decoded straight
+// from the page cache.
+final class ProgramCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // bump whenever the tree or the encoding changes
+    private static final int VERSION = 3;
+
+    // smaller files are read instead of mapped: the first mapping sets up
+    // JDK internals that take longer than reading a small file
+    private static final long MAP_SIZE = 1 << 20;
+
+    static long hits = 0;
+    static long misses = 0;
+
+    // node tags, 0 stands for a missing node
+    private static final byte NONE = 0;
+    private static final byte ASSIGN = 1;
+    private static final byte LOGICAL = 2;
+    private static final byte BINARY = 3;
+    private static final byte UNARY = 4;
+    private static final byte GROUPING = 5;
+    private static final byte LITERAL = 6;
+    private static final byte VARIABLE = 7;
+    private static final byte CALL = 8;
+    private static final byte EXPRESSION = 9;
+    private static final byte PRINT = 10;
+    private static final byte RETURN = 11;
+    private static final byte VAR = 12;
+    private static final byte FUNCTION = 13;
+    private static final byte BLOCK = 14;
+    private static final byte IF = 15;
+    private static final byte WHILE = 16;
+    private static final byte FOR = 17;
+
+    // literal kinds
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+
+    private ProgramCache() {
+    }
+
+    // identifies the source and the options that shape the tree: the
+    // length and a 64-bit MurmurHash of the contents. A cryptographic
+    // digest would cost more to set up than loading a small program.
+    static byte[] key(Path source, boolean optimize) throws IOException {
+        final long m = 0xc6a4a7935bd1e995L;
+        long length = 0;
+        long hash = 0;
+        ByteBuffer chunk = ByteBuffer.allocateDirect(65536).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            boolean end = false;
+            while (!end) {
+                // only the last chunk may be short, or have a tail of bytes
+                end = channel.read(chunk) == -1;
+                if (chunk.hasRemaining() && !end) continue;
+                chunk.flip();
+                length += chunk.remaining();
+                while (chunk.remaining() >= 8) {
+                    long k = chunk.getLong() * m;
+                    k ^= k >>> 47;
+                    hash = (hash ^ k * m) * m;
+                }
+                while (chunk.hasRemaining()) {
+                    hash = (hash ^ (chunk.get() & 0xff)) * m;
+                }
+                chunk.clear();
+            }
+        }
+        hash ^= hash >>> 47;
+        hash *= m;
+        hash ^= hash >>> 47;
+        return ByteBuffer.allocate(17).putLong(length).putLong(hash).put((byte)(optimize ? 1 : 0)).array();
+    }
+
+    // the program cached under key, or null when there is none or it is stale
+    static List<Stmt> load(Path path, byte[] key, Interpreter interpreter) {
+        if (!Files.isRegularFile(path)) {
+            misses++;
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer;
+            if (size >= MAP_SIZE) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int)size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                }
+                buffer.flip();
+            }
+            List<Stmt> statements = new Decoder(buffer, interpreter).decode(key);
+            if (statements == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return statements;
+        } catch (IOException | RuntimeException e) {
+            // unreadable or truncated, it is written again
+            misses++;
+            return null;
+        }
+    }
+
+    // writes to a temporary file first, a run starting meanwhile sees
+    // either the old program or the new one
+    static void store(Path path, byte[] key, List<Stmt> statements, Interpreter interpreter) {
+        try {
+            byte[] bytes = new Encoder(interpreter).encode(key, statements);
+            // concat() rather than +, which would bootstrap invokedynamic
+            // on every cached run's way to here
+            Path temporary = path.resolveSibling(path.getFileName().toString()
+                    .concat(Long.toString(System.nanoTime())).concat(".tmp"));
+            try {
+                Files.write(temporary, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            // the cache is only an optimization, a read-only directory just
+            // means the next run compiles again
+        }
+    }
+
+    private static final class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Interpreter interpreter;
+        private ByteBuffer out = ByteBuffer.allocate(65536);
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+
+        Encoder(Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        byte[] encode(byte[] key, List<Stmt> statements) {
+            statements(statements);
+            ByteBuffer tree = out.flip();
+            out = ByteBuffer.allocate(65536);
+            reserve(8 + key.length);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.put(key);
+            writeVarint(table.size());
+            for (String string : table) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(utf8.length);
+                reserve(utf8.length);
+                out.put(utf8);
+            }
+            reserve(tree.remaining());
+            out.put(tree);
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        private void reserve(int n) {
+            if (out.remaining() < n) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + n));
+                larger.put(out.flip());
+                out = larger;
+            }
+        }
+
+        private void tag(byte tag) {
+            reserve(1);
+            out.put(tag);
+        }
+
+        // seven bits a byte, low bits first; the high bit says more follow
+        private void writeVarint(int value) {
+            reserve(5);
+            while ((value & ~0x7f) != 0) {
+                out.put((byte)((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte)value);
+        }
+
+        private void writeDouble(double value) {
+            reserve(8);
+            out.putDouble(value);
+        }
+
+        private void string(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = table.size();
+                strings.put(string, index);
+                table.add(string);
+            }
+            writeVarint(index);
+        }
+
+        private void token(Token token) {
+            tag((byte)token.type.ordinal());
+            string(token.lexeme);
+            writeVarint(token.line_number);
+        }
+
+        private void slot(Expr expr) {
+            Slot slot = interpreter.slot(expr);
+            if (slot == null) {
+                writeVarint(0);
+            } else {
+                writeVarint(slot.depth + 1);
+                writeVarint(slot.index);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                tag(NONE);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                tag(NONE);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void statements(List<Stmt> statements) {
+            writeVarint(statements.size());
+            for (Stmt statement : statements) {
+                stmt(statement);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            slot(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                tag(NIL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                tag(NUMBER);
+                writeDouble((Double)value);
+            } else {
+                tag(STRING);
+                string(value.toString());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            slot(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            writeVarint(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                expr(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            tag((byte)(stmt.tailCall ? 1 : 0));
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            writeVarint(stmt.slot + 1);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            writeVarint(stmt.params.size());
+            for (Token param : stmt.params) {
+                token(param);
+            }
+            statements(stmt.body);
+            tag((byte)(stmt.hasClosures ? 1 : 0));
+            writeVarint(interpreter.frameSize(stmt));
+            writeVarint(stmt.slot + 1);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            statements(stmt.statements);
+            tag((byte)(stmt.hasClosures ? 1 : 0));
+            writeVarint(interpreter.frameSize(stmt));
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            tag(FOR);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            writeVarint(interpreter.frameSize(stmt));
+            return null;
+        }
+    }
+
+    private static final class Decoder {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final ByteBuffer in;
+        private final Interpreter interpreter;
+        private String[] strings;
+        // the symbol of each string used as an identifier, interned on first use
+        private int[] symbols;
+
+        Decoder(ByteBuffer in, Interpreter interpreter) {
+            this.in = in;
+            this.interpreter = interpreter;
+        }
+
+        List<Stmt> decode(byte[] key) {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            byte[] cached = new byte[key.length];
+            in.get(cached);
+            if (!Arrays.equals(cached, key)) return null;
+
+            strings = new String[readVarint()];
+            symbols = new int[strings.length];
+            Arrays.fill(symbols, -1);
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[readVarint()];
+                in.get(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+            return statements();
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        private Token token() {
+            TokenType type = TYPES[in.get()];
+            int string = readVarint();
+            int line = readVarint();
+            int symbol = -1;
+            if (type == TokenType.IDENTIFIER) {
+                if (symbols[string] == -1) {
+                    symbols[string] = Symbols.intern(strings[string]);
+                }
+                symbol = symbols[string];
+            }
+            return new Token(type, strings[string], null, line, symbol);
+        }
+
+        private void slot(Expr expr) {
+            int depth = readVarint();
+            if (depth != 0) {
+                interpreter.resolve(expr, depth - 1, readVarint());
+            }
+        }
+
+        private List<Stmt> statements() {
+            int count = readVarint();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private Expr literal() {
+            switch (in.get()) {
+                case NIL: return new Expr.Literal(null);
+                case FALSE: return new Expr.Literal(false);
+                case TRUE: return new Expr.Literal(true);
+                case NUMBER: return new Expr.Literal(in.getDouble());
+                case STRING: return new Expr.Literal(Rope.of(strings[readVarint()]));
+                default: throw new IllegalStateException("Bad literal.");
+            }
+        }
+
+        private Expr expr() {
+            byte tag = in.get();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(token(), expr());
+                    slot(expr);
+                    return expr;
+                }
+                case LOGICAL:
+                    return new Expr.Logical(expr(), token(), expr());
+                case BINARY:
+                    return new Expr.Binary(expr(), token(), expr());
+                case UNARY:
+                    return new Expr.Unary(token(), expr());
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case LITERAL:
+                    return literal();
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    slot(expr);
+                    return expr;
+                }
+                case CALL: {
+                    Expr callee = expr();
+                    Token paren = token();
+                    int count = readVarint();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(expr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                default:
+                    throw new IllegalStateException("Bad expression tag " + tag + ".");
+            }
+        }
+
+        private Stmt stmt() {
+            byte tag = in.get();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case EXPRESSION:
+                    return new Stmt.Expression(expr());
+                case PRINT:
+                    return new Stmt.Print(expr());
+                case RETURN: {
+                    Stmt.Return stmt = new Stmt.Return(token(), expr());
+                    stmt.tailCall = in.get() != 0;
+                    return stmt;
+                }
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(token(), expr());
+                    stmt.slot = readVarint() - 1;
+                    return stmt;
+                }
+                case FUNCTION: {
+                    Token name = token();
+                    int count = readVarint();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(token());
+                    }
+                    Stmt.Function stmt = new Stmt.Function(name, params, statements());
+                    stmt.hasClosures = in.get() != 0;
+                    interpreter.resolveFrame(stmt, readVarint());
+                    stmt.slot = readVarint() - 1;
+                    return stmt;
+                }
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(statements());
+                    stmt.hasClosures = in.get() != 0;
+                    interpreter.resolveFrame(stmt, readVarint());
+                    return stmt;
+                }
+                case IF:
+                    return new Stmt.If(expr(), stmt(), stmt());
+                case WHILE:
+                    return new Stmt.While(expr(), stmt());
+                case FOR: {
+                    Stmt.For stmt = new Stmt.For(stmt(), expr(), expr(), stmt());
+                    interpreter.resolveFrame(stmt, readVarint());
+                    return stmt;
+                }
+                default:
+                    throw new IllegalStateException("Bad statement tag " + tag + ".");
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package loxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+// Finds the top-level functions whose result depends on their arguments
+// only, so the interpreter may memoize them (--memoize). A function is
+// pure when it doesn't print, assigns and reads only its own locals,
+// declares no nested functions and only calls pure functions by name.
+// Functions making tail calls may be pure, but aren't memoized: the
+// interpreter only runs tail calls to a plain LoxyFunction without growing
+// the stack, so a memoized tail-recursive helper would overflow it. Their
+// pure callers still are, which caches the outer entry only.
+public class Purity implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Interpreter interpreter;
+    // top-level functions that are never redefined or assigned
+    private final Map<String, Stmt.Function> functions = new HashMap<>();
+    private final Set<String> unstable = new HashSet<>();
+    private final Stack<Set<String>> scopes = new Stack<>();
+    // the function being checked, its callees and whether it is pure so far
+    private final Map<Stmt.Function, Set<String>> callees = new HashMap<>();
+    private Set<String> calls;
+    private boolean pure;
+    // pure functions that aren't memoized themselves
+    private final Set<Stmt.Function> tailCalling = new HashSet<>();
+    private boolean tailCalls;
+
+    Purity(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void analyze(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) {
+                if (functions.put(function.name.lexeme, function) != null) {
+                    unstable.add(function.name.lexeme);
+                }
+            } else if (statement instanceof Stmt.Var var) {
+                unstable.add(var.name.lexeme);
+            }
+        }
+        // the names assigned anywhere are collected while checking bodies,
+        // top-level statements are walked for their assignments as well
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) {
+                check(function);
+            } else {
+                calls = new HashSet<>();
+                statement.accept(this);
+            }
+        }
+
+        // drop functions calling anything impure until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Stmt.Function function : new ArrayList<>(callees.keySet())) {
+                for (String callee : callees.get(function)) {
+                    if (unstable.contains(callee) || !callees.containsKey(functions.get(callee))) {
+                        callees.remove(function);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (Stmt.Function function : callees.keySet()) {
+            if (!unstable.contains(function.name.lexeme) && !tailCalling.contains(function)) {
+                interpreter.memoize(function);
+            }
+        }
+    }
+
+    private void check(Stmt.Function function) {
+        calls = new HashSet<>();
+        pure = true;
+        tailCalls = false;
+        scopes.push(new HashSet<>());
+        for (Token param : function.params) {
+            scopes.peek().add(param.lexeme);
+        }
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+        scopes.pop();
+        if (pure) {
+            callees.put(function, calls);
+            if (tailCalls) tailCalling.add(function);
+        }
+    }
+
+    private boolean isLocal(Token name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name.lexeme)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.value.accept(this);
+        if (!isLocal(expr.name)) {
+            unstable.add(expr.name.lexeme);
+            pure = false;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Variable callee && !isLocal(callee.name)) {
+            calls.add(callee.name.lexeme);
+        } else {
+            pure = false;
+            expr.callee.accept(this);
+        }
+        for (Expr argument : expr.arguments) {
+            argument.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        // a global function may be passed around as long as it is pure
+        if (!isLocal(expr.name)) {
+            calls.add(expr.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashSet<>());
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        pure = false;
+        if (!scopes.isEmpty()) {
+            scopes.peek().add(stmt.name.lexeme);
+        }
+        scopes.push(new HashSet<>());
+        for (Token param : stmt.params) {
+            scopes.peek().add(param.lexeme);
+        }
+        for (Stmt statement : stmt.body) {
+            statement.accept(this);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        pure = false;
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) tailCalls = true;
+        stmt.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        if (!scopes.isEmpty()) {
+            scopes.peek().add(stmt.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        scopes.push(new HashSet<>());
+        if (stmt.initializer != null) stmt.initializer.accept(this);
+        stmt.condition.accept(this);
+        if (stmt.increment != null) stmt.increment.accept(this);
+        stmt.body.accept(this);
+        scopes.pop();
+        return null;
+    }
+}
@@ -1,13 +1,42 @@
 package loxy;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    private Stmt.Function currentFunction = null;
+
+    // The names declared in a scope, by symbol. The index of a
+    // declaration is its slot in the runtime environment; scopes are
+    // small, so a scan comparing ints beats hashing the name.
+    private static class Scope {
+        int[] symbols = new int[8];
+        // whether a name has finished its initializer
+        boolean[] defined = new boolean[8];
+        int size = 0;
+        // a function declared in it may keep the frame
+        boolean captured = false;
+
+        // the slot of the latest declaration of symbol, or -1
+        int slot(int symbol) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (symbols[i] == symbol) return i;
+            }
+            return -1;
+        }
+
+        int declare(int symbol) {
+            if (size == symbols.length) {
+                symbols = Arrays.copyOf(symbols, size * 2);
+                defined = Arrays.copyOf(defined, size * 2);
+            }
+            symbols[size] = symbol;
+            return size++;
+        }
+    }
 
     Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
@@ -64,8 +93,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() &&
-                scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && isDeclaring(scopes.peek(), expr.name)) {
             Loxy.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
@@ -77,7 +105,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.hasClosures = scopes.peek().captured;
+        endScope(stmt);
         return null;
     }
 
@@ -89,7 +118,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt);
@@ -113,12 +142,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         resolve(stmt.value);
+        // the interpreter runs calls in tail position without growing the stack
+        if (currentFunction != null && stmt.value instanceof Expr.Call) {
+            stmt.tailCall = true;
+        }
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -133,12 +166,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // the loop variable gets one slot for the whole loop
+        beginScope();
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+        endScope(stmt);
+        return null;
+    }
+
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope());
     }
 
-    private void endScope() {
-        scopes.pop();
+    private void endScope(Stmt owner) {
+        interpreter.resolveFrame(owner, scopes.pop().size);
     }
 
     public void resolve(List<Stmt> statements) {
@@ -157,31 +202,59 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 -i);
+            int slot = scopes.get(i).slot(name.symbol);
+            if (slot != -1) {
+                interpreter.resolve(expr, scopes.size() - 1 -i, slot);
                 return;
             }
         }
     }
 
     private void resolveFunction(Stmt.Function function) {
+        // a nested function may capture the frame of the enclosing one,
+        // which then can't be reused for a tail call
+        if (currentFunction != null) {
+            currentFunction.hasClosures = true;
+        }
+        // and so may the frames of the blocks around it
+        for (Scope scope : scopes) {
+            scope.captured = true;
+        }
+        Stmt.Function enclosingFunction = currentFunction;
+        currentFunction = function;
         beginScope();
         for (Token param : function.params) {
-            declare(param);
+            // parameters fill the frame in order, a repeated name
+            // takes the later argument
+            scopes.peek().declare(param.symbol);
             define(param);
         }
         resolve(function.body);
-        endScope();
+        endScope(function);
+        currentFunction = enclosingFunction;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, false);
+    // the slot the declaration fills, -1 for a global; redeclaring a name
+    // in the same scope reuses its slot, so closures over the earlier
+    // declaration see the new value
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
+        Scope scope = scopes.peek();
+        int slot = scope.slot(name.symbol);
+        if (slot == -1) return scope.declare(name.symbol);
+        scope.defined[slot] = false;
+        return slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        Scope scope = scopes.peek();
+        scope.defined[scope.slot(name.symbol)] = true;
+    }
+
+    private boolean isDeclaring(Scope scope, Token name) {
+        int slot = scope.slot(name.symbol);
+        return slot != -1 && !scope.defined[slot];
     }
 
 }
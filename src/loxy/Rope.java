@@ -0,0 +1,86 @@
+package loxy;
+
+import java.util.ArrayDeque;
+
+// A Loxy string value. Concatenation links the two halves instead of
+// copying them; the characters are laid out only once the string is
+// printed, compared or hashed, and the flat String then caches its hash.
+// Short results are copied right away, a rope node costs more than the
+// few characters it would save.
+public final class Rope {
+    private static final int SHORT = 64;
+
+    private String flat;
+    private Rope left;
+    private Rope right;
+    private final int length;
+
+    private Rope(String flat) {
+        this.flat = flat;
+        this.length = flat.length();
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+    }
+
+    public static Rope of(String value) {
+        return new Rope(value);
+    }
+
+    public Rope concat(Rope other) {
+        if (other.length == 0) return this;
+        if (length == 0) return other;
+        if (length + other.length <= SHORT) {
+            return new Rope(toString().concat(other.toString()));
+        }
+        return new Rope(this, other);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // iterative, a string built in a loop is a very deep rope
+    private void flatten() {
+        char[] chars = new char[length];
+        int position = 0;
+        ArrayDeque<Rope> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Rope rope = pending.pop();
+            if (rope.flat != null) {
+                rope.flat.getChars(0, rope.length, chars, position);
+                position += rope.length;
+            } else {
+                pending.push(rope.right);
+                pending.push(rope.left);
+            }
+        }
+        flat = new String(chars);
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flatten();
+        }
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rope other) || length != other.length) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,49 +1,127 @@
 package loxy;
 
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 
-public class Scanner {
-    String source;
+// Produces tokens on demand while reading the source, so neither the
+// whole source nor the whole token list has to be in memory at once.
+// buffer holds the current token and whatever was read past it; start
+// and current index into it and are shifted whenever it is refilled,
+// offset is the position of buffer[0] in the source.
+public class Scanner implements TokenSource {
+    private final Reader reader;
+    private char[] buffer = new char[8192];
+    private int limit = 0;
+    private int offset = 0;
+    private boolean exhausted = false;
     int current = 0;
     int start = 0;
     int line_number = 1;
-    ArrayList<Token> tokens = new ArrayList<>();
-    static Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("if", TokenType.IF);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("or", TokenType.OR);
-        keywords.put("and", TokenType.AND);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-    }
+    // where scanToken puts its token, EOF is the last one
+    private TokenBuffer tokens;
+    private boolean finished = false;
+    // a chunk of a ParallelScanner: no token starts at or after end, EOF
+    // only ends the last chunk, errors are kept instead of reported and
+    // identifiers are left for the ParallelScanner to intern in order
+    private int end = Integer.MAX_VALUE;
+    private boolean last = true;
+    private List<Error> errors = null;
+    // 10^n for the numbers that can be converted exactly, see number()
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
 
     Scanner(String source) {
-        this.source = source;
+        this(new StringReader(source));
+    }
+
+    Scanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    // scans the chunk [from, to) of source, reading on past to when the
+    // chunk's last token goes on
+    Scanner(char[] source, int from, int to, boolean last) {
+        this(new CharArrayReader(source, from, source.length - from));
+        this.offset = from;
+        this.end = to;
+        this.last = last;
+        this.errors = new ArrayList<>();
+    }
+
+    static final class Error {
+        final int line;
+        final String message;
+
+        Error(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
     }
 
     public ArrayList<Token> scanTokens() {
-        while (!isAtEnd()) {
-            start = current;
-            scanToken();
+        ArrayList<Token> list = new ArrayList<>();
+        TokenBuffer tokens = new TokenBuffer(1024);
+        while (!finished) {
+            tokens.clear();
+            scan(tokens);
+            for (int i = 0; i < tokens.count; i++) {
+                list.add(tokens.token(i));
+            }
         }
+        return list;
+    }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line_number));
-        return tokens;
+    // scans until tokens is full or the source has ended
+    @Override
+    public void scan(TokenBuffer tokens) {
+        this.tokens = tokens;
+        while (!finished && !tokens.isFull()) {
+            if (isAtEnd()) {
+                start = current;
+                if (last) {
+                    tokens.add(TokenType.EOF, offset + current, 0, line_number, -1, null, null);
+                }
+                finished = true;
+            } else if (offset + current >= end) {
+                finished = true;
+            } else {
+                start = current;
+                scanToken();
+            }
+        }
+        this.tokens = null;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // where scanning stopped, past the end of a chunk whose last token
+    // ran on into the next one
+    int position() {
+        return offset + current;
+    }
+
+    List<Error> errors() {
+        return errors;
+    }
+
+    private void error(String message) {
+        if (errors != null) {
+            errors.add(new Error(line_number, message));
+        } else {
+            Loxy.hasError = true;
+            Loxy.error(line_number, message);
+        }
     }
 
     private void scanToken() {
@@ -113,44 +191,77 @@ public class Scanner {
                 } else if (isAlphabetUnderscore(c)) {
                     identifier();
                 } else {
-                    Loxy.hasError = true;
-                    Loxy.error(line_number, "Unexpected character.");
+                    error("Unexpected character.");
                 }
         }
     }
 
+    // reads more of the source, keeping the current token
+    private boolean fill() {
+        if (exhausted) return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            offset += start;
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                exhausted = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private char advance() {
-        current++;
-        return source.charAt(current - 1);
+        if (current >= limit) fill();
+        return buffer[current++];
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill();
+    }
+
+    private String text(int from, int to) {
+        return new String(buffer, from, to - from);
     }
 
     private void addToken(TokenType type) {
         addToken(type, null);
     }
 
+    // only literals keep their text, see TokenBuffer
     private void addToken(TokenType type, Object literal) {
-        tokens.add(new Token(type, source.substring(start, current), literal, line_number));
+        String text = literal == null ? null : text(start, current);
+        tokens.add(type, offset + start, current - start, line_number, -1, text, literal);
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
         current++;
         return true;
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return buffer[current + 1];
     }
 
 
@@ -163,34 +274,103 @@ public class Scanner {
     }
 
     private void number() {
+        // the digits are collected into an integer on the way, as long
+        // as it stays exact a single division gives the correctly
+        // rounded value Double.parseDouble would
+        // scanToken has consumed the first digit already
+        long mantissa = buffer[start] - '0';
+        int digits = 1;
+        int scale = 0;
         // deal with the integer part
-        while (isNumeric(peek())) advance();
+        while (isNumeric(peek())) {
+            mantissa = mantissa * 10 + (advance() - '0');
+            digits++;
+        }
         // deal with the double point part
         if (peek() == '.' && isNumeric(peekNext())) {
             advance();
         }
-        while (isNumeric(peek())) advance();
-        double literal = Double.parseDouble(source.substring(start, current));
-        addToken(TokenType.NUMBER, literal);
+        while (isNumeric(peek())) {
+            mantissa = mantissa * 10 + (advance() - '0');
+            digits++;
+            scale++;
+        }
+        double literal;
+        if (digits <= 15) {
+            literal = mantissa / POWERS_OF_TEN[scale];
+        } else {
+            literal = Double.parseDouble(text(start, current));
+        }
+        tokens.addNumber(offset + start, current - start, line_number, literal, buffer, start);
     }
 
     private void identifier() {
         while (isAlphabetUnderscore(peek())) advance();
-        TokenType type = keywords.get(source.substring(start, current));
-        if (type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        TokenType type = keyword();
+        if (type == TokenType.IDENTIFIER && errors != null) {
+            tokens.add(TokenType.IDENTIFIER, offset + start, current - start, line_number,
+                    -1, null, null);
+        } else if (type == TokenType.IDENTIFIER) {
+            int symbol = Symbols.intern(buffer, start, current - start);
+            tokens.add(TokenType.IDENTIFIER, offset + start, current - start, line_number,
+                    symbol, Symbols.name(symbol), null);
+        } else {
+            addToken(type);
+        }
+    }
+
+    // recognizes keywords by their characters, like a trie
+    private TokenType keyword() {
+        switch (buffer[start]) {
+            case 'a': return keyword(1, "nd", TokenType.AND);
+            case 'c': return keyword(1, "lass", TokenType.CLASS);
+            case 'e': return keyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return keyword(2, "lse", TokenType.FALSE);
+                        case 'o': return keyword(2, "r", TokenType.FOR);
+                        case 'u': return keyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return keyword(1, "f", TokenType.IF);
+            case 'n': return keyword(1, "il", TokenType.NIL);
+            case 'o': return keyword(1, "r", TokenType.OR);
+            case 'p': return keyword(1, "rint", TokenType.PRINT);
+            case 'r': return keyword(1, "eturn", TokenType.RETURN);
+            case 's': return keyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return keyword(2, "is", TokenType.THIS);
+                        case 'r': return keyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(1, "ar", TokenType.VAR);
+            case 'w': return keyword(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType keyword(int from, String rest, TokenType type) {
+        if (current - start != from + rest.length()) return TokenType.IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + from + i] != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     private void string() {
         while (peek() != '"' && !isAtEnd()) advance();
         if (isAtEnd()) {
-            Loxy.hasError = true;
-            Loxy.error(line_number, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
         advance(); // consume the right quote
-        String literal = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, literal);
+        String literal = text(start + 1, current - 1);
+        addToken(TokenType.STRING, Rope.of(literal));
     }
 
 }
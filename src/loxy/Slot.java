@@ -0,0 +1,11 @@
+package loxy;
+
+public class Slot {
+    final int depth; // how many environments to walk up
+    final int index; // position inside that environment
+
+    Slot(int depth, int index) {
+        this.depth = depth;
+        this.index = index;
+    }
+}
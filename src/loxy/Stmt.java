@@ -11,6 +11,7 @@ abstract class Stmt {
         R visitBlockStmt(Block stmt);
         R visitIfStmt(If stmt);
         R visitWhileStmt(While stmt);
+        R visitForStmt(For stmt);
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -46,6 +47,7 @@ abstract class Stmt {
     static class Return extends Stmt {
         final Token keyword;
         final Expr value;
+        boolean tailCall = false;
 
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
@@ -62,6 +64,7 @@ abstract class Stmt {
     static class Var extends Stmt {
         final Token name;
         final Expr initializer;
+        int slot = -1;
 
         Var(Token name, Expr initializer) {
             this.name = name;
@@ -79,6 +82,8 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        boolean hasClosures = false;
+        int slot = -1;
 
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -95,6 +100,7 @@ abstract class Stmt {
 
     static class Block extends Stmt {
         final List<Stmt> statements;
+        boolean hasClosures = false;
 
         Block(List<Stmt> statements) {
             this.statements = statements;
@@ -141,4 +147,24 @@ abstract class Stmt {
 
     }
 
+    static class For extends Stmt {
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+
+        For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+    }
+
 }
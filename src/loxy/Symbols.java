@@ -0,0 +1,71 @@
+package loxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Interned identifier names. The Scanner gives every distinct name a
+// small int id once, later passes compare and index by the id instead
+// of hashing the name again.
+// The table is open addressed over the ids and hashes like String does,
+// so the Scanner looks names up right in its char buffer and a String
+// is only made for a name not seen before.
+final class Symbols {
+    private static final List<String> names = new ArrayList<>();
+    private static int[] table = new int[256]; // id + 1, 0 when free
+
+    private Symbols() {
+    }
+
+    static int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    static int intern(char[] chars, int from, int length) {
+        int hash = 0;
+        for (int i = from; i < from + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = table.length - 1;
+        int index = spread(hash) & mask;
+        while (table[index] != 0) {
+            int id = table[index] - 1;
+            if (matches(names.get(id), chars, from, length)) return id;
+            index = (index + 1) & mask;
+        }
+        int id = names.size();
+        names.add(new String(chars, from, length));
+        table[index] = id + 1;
+        if (names.size() * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private static boolean matches(String name, char[] chars, int from, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[from + i]) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < names.size(); id++) {
+            int index = spread(names.get(id).hashCode()) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+    }
+
+    static String name(int symbol) {
+        return names.get(symbol);
+    }
+}
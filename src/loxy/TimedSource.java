@@ -0,0 +1,28 @@
+package loxy;
+
+// Times a Scanner while the parser asks it for tokens, recording every
+// batch it scans as a Flight Recorder scan event and adding it up for
+// Metrics.
+final class TimedSource implements TokenSource {
+    private final TokenSource source;
+    // spent scanning so far
+    long nanos = 0;
+
+    TimedSource(TokenSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public void scan(TokenBuffer tokens) {
+        Events.Phase phase = Events.begin("scan");
+        long start = System.nanoTime();
+        source.scan(tokens);
+        nanos += System.nanoTime() - start;
+        Events.end(phase);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return source.isFinished();
+    }
+}
@@ -5,13 +5,19 @@ public class Token {
     String lexeme;  // the the word from the source code
     Object literal; // such as integer or string
     int line_number;
+    int symbol;     // the interned name of an identifier, -1 otherwise
 
     Token(TokenType type, String lexeme, Object literal, int line_number) {
+        this(type, lexeme, literal, line_number, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line_number, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
 
         this.line_number = line_number;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,200 @@
+package loxy;
+
+import java.util.Arrays;
+
+// Tokens in struct-of-arrays form: one int column per field and side
+// tables for the few tokens whose text or value isn't fixed by their
+// type (identifiers, numbers and strings). The Parser checks types right
+// in the columns and builds a Token object only for the tokens the AST
+// keeps, punctuation and most keywords never become objects.
+// Numbers keep their value unboxed and their spelling in a shared char
+// pool, so scanning one allocates nothing.
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final String[] FIXED_TEXTS = new String[TYPES.length];
+
+    static {
+        for (TokenType type : TYPES) {
+            FIXED_TEXTS[type.ordinal()] = fixedText(type);
+        }
+    }
+
+    int[] types;
+    int[] starts;  // offset in the source
+    int[] lengths;
+    int[] lines;
+    int[] symbols; // see Token.symbol
+    private String[] texts;
+    private Object[] literals;
+    private double[] numbers;
+    private int[] spellings; // where a number's text starts in spelling
+    private char[] spelling = new char[1024];
+    private int spellingCount = 0;
+    int count = 0;
+
+    TokenBuffer(int capacity) {
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        symbols = new int[capacity];
+        texts = new String[capacity];
+        literals = new Object[capacity];
+        numbers = new double[capacity];
+        spellings = new int[capacity];
+    }
+
+    int capacity() {
+        return types.length;
+    }
+
+    boolean isFull() {
+        return count == types.length;
+    }
+
+    // doubles the capacity, for a buffer that holds a whole chunk
+    void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        literals = Arrays.copyOf(literals, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+        spellings = Arrays.copyOf(spellings, capacity);
+    }
+
+    void add(TokenType type, int start, int length, int line, int symbol, String text, Object literal) {
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        symbols[count] = symbol;
+        texts[count] = text;
+        literals[count] = literal;
+        count++;
+    }
+
+    void addNumber(int start, int length, int line, double value, char[] chars, int from) {
+        spell(count, chars, from, length);
+        numbers[count] = value;
+        add(TokenType.NUMBER, start, length, line, -1, null, null);
+    }
+
+    private void spell(int i, char[] chars, int from, int length) {
+        if (spellingCount + length > spelling.length) {
+            spelling = Arrays.copyOf(spelling, Math.max(spelling.length * 2, spellingCount + length));
+        }
+        System.arraycopy(chars, from, spelling, spellingCount, length);
+        spellings[i] = spellingCount;
+        spellingCount += length;
+    }
+
+    // appends n tokens of other starting at from, a column at a time
+    void addAll(TokenBuffer other, int from, int n) {
+        System.arraycopy(other.types, from, types, count, n);
+        System.arraycopy(other.starts, from, starts, count, n);
+        System.arraycopy(other.lengths, from, lengths, count, n);
+        System.arraycopy(other.lines, from, lines, count, n);
+        System.arraycopy(other.symbols, from, symbols, count, n);
+        System.arraycopy(other.texts, from, texts, count, n);
+        System.arraycopy(other.literals, from, literals, count, n);
+        System.arraycopy(other.numbers, from, numbers, count, n);
+        for (int i = 0; i < n; i++) {
+            if (other.isNumber(from + i)) {
+                spell(count + i, other.spelling, other.spellings[from + i], other.lengths[from + i]);
+            }
+        }
+        count += n;
+    }
+
+    void setSymbol(int i, int symbol) {
+        symbols[i] = symbol;
+        texts[i] = Symbols.name(symbol);
+    }
+
+    TokenType type(int i) {
+        return TYPES[types[i]];
+    }
+
+    private boolean isNumber(int i) {
+        return types[i] == TokenType.NUMBER.ordinal();
+    }
+
+    Object literal(int i) {
+        return isNumber(i) ? (Object)numbers[i] : literals[i];
+    }
+
+    Token token(int i) {
+        String text;
+        if (texts[i] != null) {
+            text = texts[i];
+        } else if (isNumber(i)) {
+            text = new String(spelling, spellings[i], lengths[i]);
+        } else {
+            text = FIXED_TEXTS[types[i]];
+        }
+        return new Token(type(i), text, literal(i), lines[i], symbols[i]);
+    }
+
+    void clear() {
+        Arrays.fill(texts, 0, count, null);
+        Arrays.fill(literals, 0, count, null);
+        count = 0;
+        spellingCount = 0;
+    }
+
+    // drops every token but the last, which the parser may still ask for
+    void keepLast() {
+        if (count == 0) return;
+        int last = count - 1;
+        types[0] = types[last];
+        starts[0] = starts[last];
+        lengths[0] = lengths[last];
+        lines[0] = lines[last];
+        symbols[0] = symbols[last];
+        numbers[0] = numbers[last];
+        String text = texts[last];
+        Object literal = literals[last];
+        int spelled = spellings[last];
+        clear();
+        texts[0] = text;
+        literals[0] = literal;
+        if (isNumber(0)) {
+            System.arraycopy(spelling, spelled, spelling, 0, lengths[0]);
+            spellings[0] = 0;
+            spellingCount = lengths[0];
+        }
+        count = 1;
+    }
+
+    // the lexeme of the tokens that don't keep their text
+    private static String fixedText(TokenType type) {
+        return switch (type) {
+            case LEFT_PAREN -> "(";
+            case RIGHT_PAREN -> ")";
+            case LEFT_BRACE -> "{";
+            case RIGHT_BRACE -> "}";
+            case PLUS -> "+";
+            case MINUS -> "-";
+            case STAR -> "*";
+            case COMMA -> ",";
+            case SEMICOLON -> ";";
+            case DOT -> ".";
+            case SLASH -> "/";
+            case BANG -> "!";
+            case BANG_EQUAL -> "!=";
+            case EQUAL -> "=";
+            case EQUAL_EQUAL -> "==";
+            case GREATER -> ">";
+            case GREATER_EQUAL -> ">=";
+            case LESS -> "<";
+            case LESS_EQUAL -> "<=";
+            case EOF -> "";
+            // keywords
+            default -> type.name().toLowerCase();
+        };
+    }
+}
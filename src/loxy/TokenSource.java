@@ -0,0 +1,10 @@
+package loxy;
+
+// Where the Parser gets its tokens: a Scanner reading the source as it
+// goes, or a ParallelScanner handing out tokens it scanned up front.
+interface TokenSource {
+    // adds tokens until the buffer is full or EOF has been added
+    void scan(TokenBuffer tokens);
+
+    boolean isFinished();
+}
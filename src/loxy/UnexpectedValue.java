@@ -0,0 +1,15 @@
+package loxy;
+
+// Thrown by Interpreter.evaluateNumber when an expression that was
+// expected to be a number produced something else. It carries the
+// value so that the caller can go on without evaluating the expression again.
+public class UnexpectedValue extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    UnexpectedValue(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,55 @@
+package loxy.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Chunk {
+    byte[] code = new byte[16];
+    int[] lines = new int[16]; // source line of every byte in code
+    String[] lexemes = new String[16]; // and the token it was compiled from
+    int count = 0;
+    Object[] constants = new Object[0];
+
+    private final List<Object> constantPool = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    public void write(int b, int line, String lexeme) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+            lexemes = Arrays.copyOf(lexemes, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        lexemes[count] = lexeme;
+        count++;
+    }
+
+    public void patch(int offset, int b) {
+        code[offset] = (byte) b;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int addConstant(Object value) {
+        // numbers, strings and names are reused, functions are always distinct
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        constantPool.add(value);
+        index = constantPool.size() - 1;
+        if (!(value instanceof VmFunction)) constantIndex.put(value, index);
+        return index;
+    }
+
+    void trim() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        lexemes = Arrays.copyOf(lexemes, count);
+        constants = constantPool.toArray();
+    }
+}
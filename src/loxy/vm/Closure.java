@@ -0,0 +1,16 @@
+package loxy.vm;
+
+class Closure {
+    final VmFunction function;
+    final Upvalue[] upvalues;
+
+    Closure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
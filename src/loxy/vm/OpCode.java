@@ -0,0 +1,41 @@
+package loxy.vm;
+
+public final class OpCode {
+    // operand sizes are given after each opcode,
+    // u8 / u16 are big-endian unsigned integers following the opcode
+    public static final byte CONSTANT = 0;       // u16 constant index
+    public static final byte NIL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+    public static final byte GET_LOCAL = 5;      // u16 slot
+    public static final byte SET_LOCAL = 6;      // u16 slot
+    public static final byte GET_GLOBAL = 7;     // u16 name constant
+    public static final byte DEFINE_GLOBAL = 8;  // u16 name constant
+    public static final byte SET_GLOBAL = 9;     // u16 name constant
+    public static final byte GET_UPVALUE = 10;   // u16 upvalue index
+    public static final byte SET_UPVALUE = 11;   // u16 upvalue index
+    public static final byte EQUAL = 12;
+    public static final byte NOT_EQUAL = 13;
+    public static final byte GREATER = 14;
+    public static final byte GREATER_EQUAL = 15;
+    public static final byte LESS = 16;
+    public static final byte LESS_EQUAL = 17;
+    public static final byte ADD = 18;
+    public static final byte SUBTRACT = 19;
+    public static final byte MULTIPLY = 20;
+    public static final byte DIVIDE = 21;
+    public static final byte NOT = 22;
+    public static final byte NEGATE = 23;
+    public static final byte PRINT = 24;
+    public static final byte JUMP = 25;          // u16 forward offset
+    public static final byte JUMP_IF_FALSE = 26; // u16 forward offset, keeps the condition
+    public static final byte LOOP = 27;          // u16 backward offset
+    public static final byte CALL = 28;          // u8 argument count
+    public static final byte CLOSURE = 29;       // u16 function constant, then (u8 isLocal, u16 index) per upvalue
+    public static final byte CLOSE_UPVALUE = 30;
+    public static final byte RETURN = 31;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,15 @@
+package loxy.vm;
+
+class Upvalue {
+    // while open the variable still lives on the VM stack at slot,
+    // once its scope ends the value is moved into closed
+    final int slot;
+    boolean open = true;
+    Object closed;
+    Upvalue next; // open upvalues form a list sorted by slot, highest first
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,367 @@
+package loxy.vm;
+
+import loxy.Interpreter;
+import loxy.LoxyCallable;
+import loxy.Rope;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class VM {
+    private static final int FRAMES_MAX = 1 << 16;
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        int base; // stack slot of the callee, locals start right after it
+    }
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+
+    public VM() {
+        globals.put("clock", new LoxyCallable(){
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+    }
+
+    public void interpret(VmFunction script) {
+        Closure closure = new Closure(script);
+        push(closure);
+        try {
+            // a script takes no arguments and starts on an empty stack,
+            // so this call has no caller to blame an error on
+            call(closure, 0, null, 0);
+            run();
+        } finally {
+            // after a runtime error the stack is in an unknown state,
+            // the next script starts from scratch
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> {
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                }
+                case OpCode.NIL -> push(null);
+                case OpCode.TRUE -> push(true);
+                case OpCode.FALSE -> push(false);
+                case OpCode.POP -> stack[--sp] = null;
+                case OpCode.GET_LOCAL -> {
+                    push(stack[frame.base + readShort(code, ip)]);
+                    ip += 2;
+                }
+                case OpCode.SET_LOCAL -> {
+                    stack[frame.base + readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                }
+                case OpCode.GET_GLOBAL -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    // globals are late bound, see Environment.get
+                    if (!globals.containsKey(name)) {
+                        throw error(frame, ip, "Undefined variable '" + name + "'.");
+                    }
+                    push(globals.get(name));
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    globals.put((String) constants[readShort(code, ip)], pop());
+                    ip += 2;
+                }
+                case OpCode.SET_GLOBAL -> {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        throw error(frame, ip, "Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, stack[sp - 1]);
+                }
+                case OpCode.GET_UPVALUE -> {
+                    Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    push(upvalue.open ? stack[upvalue.slot] : upvalue.closed);
+                }
+                case OpCode.SET_UPVALUE -> {
+                    Upvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    if (upvalue.open) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                }
+                case OpCode.EQUAL -> {
+                    Object right = pop();
+                    Object left = pop();
+                    push(Objects.equals(left, right));
+                }
+                case OpCode.NOT_EQUAL -> {
+                    Object right = pop();
+                    Object left = pop();
+                    push(!Objects.equals(left, right));
+                }
+                case OpCode.GREATER -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() > right);
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() >= right);
+                }
+                case OpCode.LESS -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() < right);
+                }
+                case OpCode.LESS_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() <= right);
+                }
+                case OpCode.ADD -> {
+                    Object right = pop();
+                    Object left = pop();
+                    if (left instanceof Double && right instanceof Double) {
+                        push((double) left + (double) right);
+                    } else if (left instanceof Rope && right instanceof Rope) {
+                        push(((Rope) left).concat((Rope) right));
+                    } else {
+                        throw error(frame, ip, "Unexpected operands");
+                    }
+                }
+                case OpCode.SUBTRACT -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() - right);
+                }
+                case OpCode.MULTIPLY -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() * right);
+                }
+                case OpCode.DIVIDE -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    push((double) pop() / right);
+                }
+                case OpCode.NOT -> {
+                    Object value = pop();
+                    push(value instanceof Boolean ? !(Boolean) value : value == null);
+                }
+                case OpCode.NEGATE -> {
+                    if (!(stack[sp - 1] instanceof Double)) {
+                        throw error(frame, ip, "Number expected.");
+                    }
+                    push(-(double) pop());
+                }
+                case OpCode.PRINT -> System.out.println(pop());
+                case OpCode.JUMP -> ip += readShort(code, ip) + 2;
+                case OpCode.JUMP_IF_FALSE -> {
+                    if (isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                }
+                case OpCode.LOOP -> ip -= readShort(code, ip) - 2;
+                case OpCode.CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    Object callee = stack[sp - 1 - argCount];
+                    if (callee instanceof Closure closure) {
+                        call(closure, argCount, frame, ip);
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                    } else if (callee instanceof LoxyCallable function) {
+                        checkArity(frame, ip, function.arity(), argCount);
+                        Object result = callNative(function, argCount);
+                        Arrays.fill(stack, sp - argCount - 1, sp, null);
+                        sp -= argCount + 1;
+                        push(result);
+                    } else {
+                        throw error(frame, ip, "Can only call functions and classes");
+                    }
+                }
+                case OpCode.CLOSURE -> {
+                    VmFunction function = (VmFunction) constants[readShort(code, ip)];
+                    ip += 2;
+                    Closure closure = new Closure(function);
+                    for (int i = 0; i < function.upvalueCount; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = readShort(code, ip);
+                        ip += 2;
+                        closure.upvalues[i] = isLocal
+                                ? captureUpvalue(frame.base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    push(closure);
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                }
+                case OpCode.RETURN -> {
+                    Object result = pop();
+                    closeUpvalues(frame.base);
+                    frameCount--;
+                    Arrays.fill(stack, frame.base, sp, null);
+                    sp = frame.base;
+                    if (frameCount == 0) return;
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                }
+                default -> throw error(frame, ip, "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    // caller and ip locate the call, for errors
+    private void call(Closure closure, int argCount, CallFrame caller, int ip) {
+        VmFunction function = closure.function;
+        if (function.arity != argCount) {
+            throw error(caller, ip, "Expected " +
+                    function.arity + " arguments but got " +
+                    argCount + ".");
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw error(caller, ip, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = frames[frameCount] = new CallFrame();
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private Object callNative(LoxyCallable function, int argCount) {
+        int first = sp - argCount;
+        return switch (argCount) {
+            case 0 -> function.call0(null);
+            case 1 -> function.call1(null, stack[first]);
+            case 2 -> function.call2(null, stack[first], stack[first + 1]);
+            case 3 -> function.call3(null, stack[first], stack[first + 1], stack[first + 2]);
+            case 4 -> function.call4(null, stack[first], stack[first + 1], stack[first + 2], stack[first + 3]);
+            default -> function.call(null, Arrays.copyOfRange(stack, first, sp));
+        };
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.open = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private boolean isTruthy(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else {
+            return value != null;
+        }
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (!(stack[sp - 2] instanceof Double) || !(stack[sp - 1] instanceof Double)) {
+            throw error(frame, ip, "Number expected.");
+        }
+    }
+
+    private void checkArity(CallFrame frame, int ip, int arity, int argCount) {
+        if (arity != argCount) {
+            throw error(frame, ip, "Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    private VmError error(CallFrame frame, int ip, String msg) {
+        Chunk chunk = frame.closure.function.chunk;
+        return new VmError(chunk.lines[ip - 1], chunk.lexemes[ip - 1], msg);
+    }
+}
@@ -0,0 +1,14 @@
+package loxy.vm;
+
+public class VmError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public final int line_number;
+    public final String lexeme;
+
+    VmError(int line_number, String lexeme, String msg) {
+        super(msg);
+        this.line_number = line_number;
+        this.lexeme = lexeme;
+    }
+}
@@ -0,0 +1,29 @@
+package loxy.vm;
+
+public class VmFunction {
+    final String name;
+    final int arity;
+    int upvalueCount = 0;
+    final Chunk chunk = new Chunk();
+
+    public VmFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public Chunk chunk() {
+        return chunk;
+    }
+
+    // called by the compiler once the body has been emitted
+    public void finish(int upvalueCount) {
+        this.upvalueCount = upvalueCount;
+        chunk.trim();
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -8,27 +8,28 @@ import java.util.List;
 
 public class GenerateAst {
     public static void main(String[] args) throws FileNotFoundException {
-        String exprOutput = "src/lox/Expr.java";
-        String stmtOutput = "src/lox/Stmt.java";
+        String exprOutput = "src/loxy/Expr.java";
+        String stmtOutput = "src/loxy/Stmt.java";
         List<String> exprTypes = Arrays.asList(
-                "Assign     :   Token name, Expr value",
+                "Assign     :   Token name, Expr value | Environment.Cell cell = null",
                 "Logical    :   Expr left, Token operator, Expr right",
-                "Binary     :   Expr left, Token operator, Expr right",
+                "Binary     :   Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
                 "Unary      :   Token operator, Expr right",
                 "Grouping   :   Expr expression",
                 "Literal    :   Object value",
-                "Variable   :   Token name",
+                "Variable   :   Token name | Environment.Cell cell = null",
                 "Call       :   Expr callee, Token paren, List<Expr> arguments"
         );
         List<String> stmtTypes = Arrays.asList(
                 "Expression :   Expr expression",
                 "Print      :   Expr expression",
-                "Return     :   Token keyword, Expr value",
-                "Var        :   Token name, Expr initializer",
-                "Function   :   Token name, List<Token> params, List<Stmt> body",
-                "Block      :   List<Stmt> statements",
+                "Return     :   Token keyword, Expr value | boolean tailCall = false",
+                "Var        :   Token name, Expr initializer | int slot = -1",
+                "Function   :   Token name, List<Token> params, List<Stmt> body | boolean hasClosures = false, int slot = -1",
+                "Block      :   List<Stmt> statements | boolean hasClosures = false",
                 "If         :   Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "While      :   Expr condition, Stmt body"
+                "While      :   Expr condition, Stmt body",
+                "For        :   Stmt initializer, Expr condition, Expr increment, Stmt body"
         );
 
         defineAst(exprOutput, "Expr", exprTypes);
@@ -45,9 +46,9 @@ public class GenerateAst {
         } else{
             writer = new PrintWriter(outputFile);
         }
-        // type -> Binary : Expr left, Token operator, Expr right
+        // type -> Binary : Expr left, Token operator, Expr right | BinaryNode node = ...
         writer.println("/* This file is automatically generated by tool/GenerateAst.java */");
-        writer.println("package lox;");
+        writer.println("package loxy;");
         writer.println("import java.util.List;");
         writer.println(String.format("abstract class %s {", baseName));
         // visitor interface
@@ -71,6 +72,13 @@ public class GenerateAst {
     }
 
     static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+        // fields after '|' are mutable state of the node (with an initializer),
+        // they are not part of the constructor
+        String mutableList = null;
+        if (fieldList.contains("|")) {
+            mutableList = fieldList.split("\\|")[1].trim();
+            fieldList = fieldList.split("\\|")[0].trim();
+        }
         // class head
         writer.println(String.format("    static class %s extends %s {", className, baseName));
         // class fields
@@ -78,6 +86,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println(String.format("        final %s;", field));
         }
+        if (mutableList != null) {
+            for (String field : mutableList.split(", ")) {
+                writer.println(String.format("        %s;", field));
+            }
+        }
         writer.println();
 
         // constructor
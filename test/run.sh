@@ -0,0 +1,37 @@
+#!/bin/sh
+# Runs every script in test/ with each of the given option sets and
+# compares what it prints with its "// expect: " comments:
+#
+#     $ test/run.sh build/classes "" "--vm" "--jit"
+#
+# The first argument is a directory or jar with Loxy's classes. A script
+# that doesn't hold for some option set says so with "// skip: --vm".
+set -e
+
+classes=${1:?usage: test/run.sh [classes] [options]...}
+shift
+[ $# -eq 0 ] && set -- ""
+dir=$(dirname "$0")
+failed=0
+
+for script in "$dir"/*.l; do
+    expected=$(sed -n 's|.*// expect: ||p' "$script")
+    skip=$(sed -n 's|.*// skip: ||p' "$script")
+    for options in "$@"; do
+        if [ -n "$options" ] && [ "$options" = "$skip" ]; then
+            continue
+        fi
+        # shellcheck disable=SC2086
+        actual=$(java -cp "$classes" loxy.Loxy $options "$script" 2>&1 || true)
+        if [ "$actual" != "$expected" ]; then
+            echo "FAIL $script $options"
+            echo "$actual" | diff -u /dev/fd/3 - 3<<END || true
+$expected
+END
+            failed=1
+        fi
+    done
+done
+
+[ $failed -eq 0 ] && echo "all passed"
+exit $failed